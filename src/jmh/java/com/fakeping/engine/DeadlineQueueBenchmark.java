@@ -0,0 +1,63 @@
+package com.fakeping.engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue and release throughput of the delay queue at a steady in-flight depth.
+ * 
+ * With a 150ms delay, a depth of 150 / 1500 / 15000 packets corresponds to
+ * 1k / 10k / 100k packets per second. Each operation queues one entry and releases
+ * the earliest one, like the release thread does at steady state. The released
+ * entry is queued again by the next operation, as a pooled slot would be.
+ * Run with the gc profiler to confirm no bytes are allocated per packet.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeadlineQueueBenchmark {
+    private static final long DELAY_NANOS = 150_000_000L;
+    private static final long JITTER_NANOS = 20_000_000L;
+    
+    @Param({"150", "1500", "15000"})
+    public int depth;
+    
+    @Param({"true", "false"})
+    public boolean preserveOrder;
+    
+    private DeadlineQueue<DelayEntry> queue;
+    private DelayEntry spare;
+    private long now;
+    private long step;
+    
+    @Setup(Level.Iteration)
+    public void setup() {
+        queue = new DeadlineQueue<>();
+        spare = new DelayEntry();
+        // Virtual clock advancing one packet interval per operation
+        step = DELAY_NANOS / depth;
+        now = 0;
+        for (int i = 0; i < depth; i++) {
+            offer();
+            spare = new DelayEntry();
+        }
+    }
+    
+    @Benchmark
+    public DelayEntry queueAndRelease() {
+        offer();
+        spare = queue.pollDue(Long.MAX_VALUE);
+        return spare;
+    }
+    
+    private void offer() {
+        now += step;
+        long jitter = ThreadLocalRandom.current().nextLong(-JITTER_NANOS, JITTER_NANOS + 1);
+        queue.offer(spare, now + DELAY_NANOS + jitter, 0, preserveOrder, 0);
+    }
+}
@@ -0,0 +1,43 @@
+package com.fakeping.latency;
+
+import com.fakeping.config.LatencyModelType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delay sampling cost per model, with several threads sampling one shared model
+ * the way the client, Netty and integrated-server threads do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyModelBenchmark {
+    @Param({"UNIFORM", "NORMAL", "LOG_NORMAL", "PARETO", "BURST", "RANDOM_WALK"})
+    public LatencyModelType type;
+    
+    private LatencyModel model;
+    private TokenBucket link;
+    
+    @Setup
+    public void setup() {
+        model = LatencyModel.create(type);
+        link = new TokenBucket();
+        link.setRate(1000);
+    }
+    
+    @Benchmark
+    public int sampleDelay() {
+        return model.sampleDelayMs(150, 20, ThreadLocalRandom.current(), System.nanoTime());
+    }
+    
+    @Benchmark
+    public long reserveBandwidth() {
+        return link.reserve(40, System.nanoTime());
+    }
+}
@@ -0,0 +1,41 @@
+package com.fakeping.network;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of classifying a packet once its class is in the lookup table.
+ * 
+ * Cycles through several packet classes so the lookup isn't trivially
+ * predictable, one of which is delayed through an extra packet id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketClassifierBenchmark {
+    private PacketClassifier classifier;
+    private StubPacket[] packets;
+    private int index;
+    
+    @Setup
+    public void setup() {
+        classifier = new PacketClassifier(List.of("fakeping:stub_keep_alive"));
+        packets = new StubPacket[] {
+            new StubPacket.Move(), new StubPacket.Swing(), new StubPacket.Attack(), new StubPacket.KeepAlive()
+        };
+        for (StubPacket packet : packets) {
+            classifier.lookup(packet);
+        }
+    }
+    
+    @Benchmark
+    public PacketCategory classify() {
+        StubPacket packet = packets[index++ & 3];
+        return classifier.classify(packet);
+    }
+}
@@ -0,0 +1,81 @@
+package com.fakeping.network;
+
+import com.fakeping.config.ConfigSnapshot;
+import com.fakeping.config.FakePingConfig;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.NetworkSide;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The path a delayed packet takes through the mod: queuePacket (what the send
+ * hook calls), releaseDue on the release thread and the {@link SendBatch} that
+ * writes it on the event loop.
+ * 
+ * The connection sits on an EmbeddedChannel, whose event loop runs tasks when
+ * asked to, so everything happens on the benchmark thread and the written
+ * packets can be counted and discarded. The delay is 0 so every packet is due
+ * right away. Run with the gc profiler to check that queueing, releasing and
+ * batching allocate nothing per packet once the slot and batch pools are warm.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketDelayManagerBenchmark {
+    @Param({"1", "16"})
+    public int packetsPerRelease;
+    
+    private Path configFile;
+    private FakePingConfig config;
+    private EmbeddedChannel channel;
+    private PacketDelayManager manager;
+    private ConfigSnapshot settings;
+    private StubPacket packet;
+    
+    @Setup
+    public void setup() throws IOException {
+        configFile = Files.createTempFile("fakeping-benchmark", ".json");
+        config = new FakePingConfig(configFile);
+        config.addExtraDelayedPacket("fakeping:stub_move");
+        config.setJitterMs(0);
+        config.enableWithDelayMs(0);
+        settings = config.snapshot();
+        
+        // Adding the connection to the channel activates it, which hands it the channel
+        ClientConnection connection = new ClientConnection(NetworkSide.CLIENTBOUND);
+        channel = new EmbeddedChannel(connection);
+        manager = new PacketDelayManager(config, new ReleaseScheduler(config), connection, channel.eventLoop());
+        packet = new StubPacket.Move();
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.finishAndReleaseAll();
+        config.flush();
+        Files.deleteIfExists(configFile);
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(16)
+    public int queueAndRelease() {
+        int written = 0;
+        for (int round = 0; round < 16 / packetsPerRelease; round++) {
+            for (int i = 0; i < packetsPerRelease; i++) {
+                manager.queuePacket(settings, packet, null);
+            }
+            manager.releaseDue(System.nanoTime());
+            channel.runPendingTasks();
+            written += channel.outboundMessages().size();
+            channel.outboundMessages().clear();
+        }
+        return written;
+    }
+}
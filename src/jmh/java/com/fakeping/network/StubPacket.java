@@ -0,0 +1,52 @@
+package com.fakeping.network;
+
+import net.minecraft.network.NetworkSide;
+import net.minecraft.network.listener.ServerPlayPacketListener;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.PacketType;
+import net.minecraft.util.Identifier;
+
+/**
+ * Minimal client -> server packets for running benchmarks without a Minecraft client.
+ * Several subclasses exist so the classifier sees more than one packet class.
+ */
+abstract class StubPacket implements Packet<ServerPlayPacketListener> {
+    private final PacketType<StubPacket> type;
+    
+    StubPacket(String id) {
+        this.type = new PacketType<>(NetworkSide.SERVERBOUND, Identifier.of("fakeping", id));
+    }
+    
+    @Override
+    public PacketType<? extends Packet<ServerPlayPacketListener>> getPacketId() {
+        return type;
+    }
+    
+    @Override
+    public void apply(ServerPlayPacketListener listener) {
+    }
+    
+    static final class Move extends StubPacket {
+        Move() {
+            super("stub_move");
+        }
+    }
+    
+    static final class Swing extends StubPacket {
+        Swing() {
+            super("stub_swing");
+        }
+    }
+    
+    static final class Attack extends StubPacket {
+        Attack() {
+            super("stub_attack");
+        }
+    }
+    
+    static final class KeepAlive extends StubPacket {
+        KeepAlive() {
+            super("stub_keep_alive");
+        }
+    }
+}
@@ -2,11 +2,20 @@ package com.fakeping;
 
 import com.fakeping.command.PingCommand;
 import com.fakeping.config.FakePingConfig;
+import com.fakeping.config.PresetLibrary;
 import com.fakeping.network.PacketDelayManager;
+import com.fakeping.network.ReleaseScheduler;
+import com.fakeping.network.RttCalibrator;
 import com.fakeping.ui.FakePingHud;
+import com.fakeping.ui.PresetKeybinds;
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,10 +28,14 @@ import org.slf4j.LoggerFactory;
  * 
  * Architecture:
  * - FakePingMod: Main entry point, handles initialization
- * - PacketDelayManager: Core system for queueing and delaying packets
+ * - PacketDelayManager: Core system for queueing and delaying packets, one per connection
+ * - DelayPipeline: Minecraft-independent delay engine, one per direction
+ * - ReleaseScheduler: Thread that releases delayed packets at their deadline
+ * - RttCalibrator: Measures the real round trip and corrects the applied delay
  * - ClientConnectionMixin: Intercepts packet sending
  * - PingCommand: User commands for controlling fake ping
  * - FakePingConfig: Configuration and settings management
+ * - PresetLibrary: Named presets switched by keybind or command
  * - FakePingHud: Visual overlay showing current status
  */
 public class FakePingMod implements ClientModInitializer {
@@ -30,7 +43,9 @@ public class FakePingMod implements ClientModInitializer {
     public static final Logger LOGGER = LoggerFactory.getLogger(MOD_ID);
     
     private static FakePingConfig config;
-    private static PacketDelayManager packetDelayManager;
+    private static ReleaseScheduler releaseScheduler;
+    private static RttCalibrator rttCalibrator;
+    private static PresetLibrary presetLibrary;
     
     @Override
     public void onInitializeClient() {
@@ -39,24 +54,60 @@ public class FakePingMod implements ClientModInitializer {
         // Initialize configuration
         config = new FakePingConfig();
         config.load();
+        presetLibrary = new PresetLibrary(FakePingConfig.getPresetDirectory());
+        LOGGER.info("Loaded {} presets", presetLibrary.load());
         
-        // Initialize packet delay manager
-        packetDelayManager = new PacketDelayManager(config);
+        // Start the release thread shared by all connections
+        releaseScheduler = new ReleaseScheduler(config);
+        releaseScheduler.start();
+        rttCalibrator = new RttCalibrator(config);
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> {
+            PacketDelayManager manager = getPacketDelayManager();
+            if (manager != null) {
+                manager.close();
+            }
+            releaseScheduler.stop();
+            config.flush();
+        });
+        
+        // Each singleplayer connection gets its own delay manager, and packets for
+        // a world that was left go with it. Worlds opened to LAN aren't delayed.
+        // Timelines and the calibration correction start over with every connection.
+        ClientPlayConnectionEvents.INIT.register((handler, client) -> {
+            if (client.getServer() != null && client.isInSingleplayer()) {
+                PacketDelayManager.open(config, releaseScheduler, handler.getConnection());
+            }
+        });
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> {
+            PacketDelayManager manager = PacketDelayManager.of(handler.getConnection());
+            if (manager != null) {
+                manager.close();
+            }
+            rttCalibrator.reset();
+        });
         
         // Register commands
         ClientCommandRegistrationCallback.EVENT.register((dispatcher, registryAccess) -> {
             PingCommand.register(dispatcher);
         });
         
-        // Register tick event for processing delayed packets
+        // Register tick event for processing delayed packets (tick release mode)
         ClientTickEvents.END_CLIENT_TICK.register(client -> {
             if (client.player != null) {
-                packetDelayManager.tick();
+                PacketDelayManager manager = getPacketDelayManager();
+                if (manager != null && !client.isInSingleplayer()) {
+                    // Opened to LAN: stop delaying, like a world that was never singleplayer
+                    manager.close();
+                } else if (manager != null) {
+                    manager.tick();
+                }
+                rttCalibrator.tick(client);
             }
         });
         
         // Register HUD overlay
         FakePingHud.register();
+        PresetKeybinds.register();
         
         LOGGER.info("FakePing mod initialized successfully!");
     }
@@ -65,7 +116,25 @@ public class FakePingMod implements ClientModInitializer {
         return config;
     }
     
+    /**
+     * Delay manager of the current connection, or null when not connected to
+     * the integrated server.
+     */
+    @Nullable
     public static PacketDelayManager getPacketDelayManager() {
-        return packetDelayManager;
+        ClientPlayNetworkHandler handler = MinecraftClient.getInstance().getNetworkHandler();
+        return handler != null ? PacketDelayManager.of(handler.getConnection()) : null;
+    }
+    
+    public static ReleaseScheduler getReleaseScheduler() {
+        return releaseScheduler;
+    }
+    
+    public static RttCalibrator getRttCalibrator() {
+        return rttCalibrator;
+    }
+    
+    public static PresetLibrary getPresetLibrary() {
+        return presetLibrary;
     }
 }
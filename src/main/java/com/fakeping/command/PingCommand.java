@@ -1,12 +1,49 @@
 package com.fakeping.command;
 
 import com.fakeping.FakePingMod;
+import com.fakeping.config.CategoryDelay;
+import com.fakeping.config.ConfigSnapshot;
+import com.fakeping.config.DrainMode;
 import com.fakeping.config.FakePingConfig;
+import com.fakeping.config.LatencyModelType;
+import com.fakeping.config.LatencyPreset;
+import com.fakeping.config.OrderPolicy;
+import com.fakeping.config.OverflowPolicy;
+import com.fakeping.config.ReleaseMode;
+import com.fakeping.latency.LatencyTimeline;
+import com.fakeping.latency.LatencyTrace;
+import com.fakeping.metrics.DelayMetrics;
+import com.fakeping.metrics.LatencyHistogram;
+import com.fakeping.metrics.SessionRecorder;
+import com.fakeping.metrics.StatsExporter;
+import com.fakeping.network.PacketCategory;
+import com.fakeping.network.PacketDelayManager;
+import com.fakeping.network.RttCalibrator;
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.argument.IdentifierArgumentType;
 import net.minecraft.text.Text;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 import static net.fabricmc.fabric.api.client.command.v2.ClientCommandManager.*;
 
@@ -22,10 +59,125 @@ import static net.fabricmc.fabric.api.client.command.v2.ClientCommandManager.*;
  * - /ping toggle attacks - Toggle attack packet delay
  * - /ping toggle movement - Toggle movement packet delay
  * - /ping toggle interactions - Toggle interaction packet delay
+ * - /ping category <name> delay|jitter <ms> - Give a category its own delay or jitter, in a lane of its own
+ * - /ping category <name> model <name> - Give a category its own latency model
+ * - /ping category <name> delay|jitter|model off - Go back to the global setting
+ * - /ping category <name> reset - Go back to the global settings entirely
+ * - /ping model <name> - Choose the latency distribution (uniform, normal, lognormal, pareto, burst, walk)
+ * - /ping bandwidth <kbps> - Limit uplink bandwidth
+ * - /ping bandwidth down <kbps> - Limit downlink bandwidth
+ * - /ping bandwidth off - Remove both limits
+ * - /ping loss <percent> [bursty] - Simulate packet loss with TCP retransmission stalls
+ * - /ping loss off - Disable packet loss
+ * - /ping coalesce <ms> [bytes] - Hold outbound packets and send them together (Nagle / delayed ACK)
+ * - /ping coalesce off - Send every packet on its own
+ * - /ping trace load <name> - Replay a recorded ping trace from config/fakeping/traces
+ * - /ping trace list - Show the available traces
+ * - /ping trace speed <factor> - Replay speed of the trace
+ * - /ping trace loop on|off - Loop the trace or hold its last value
+ * - /ping trace off - Go back to the latency model
+ * - /ping timeline play <name> - Play a scripted delay timeline from config/fakeping/timelines once
+ * - /ping timeline loop <name> - Play a timeline over and over
+ * - /ping timeline stop - Go back to the configured base delay
+ * - /ping timeline list - Show the available timelines
+ * - /ping release scheduler|tick - Choose how delayed packets are released
+ * - /ping order preserve|global|reorder - Whether jitter may reorder packets, and whether categories share one order
+ * - /ping drain flush|deadline|retime - What happens to queued packets on disable or delay change
+ * - /ping preset <name> - Switch to a preset from config/fakeping/presets (also bound to [ and ])
+ * - /ping preset list - Show the loaded presets
+ * - /ping preset reload - Load the presets from disk again
+ * - /ping preset drain flush|deadline|retime - What happens to queued packets on a preset switch
+ * - /ping calibrate on|off - Correct the delay until the measured round trip matches the target
+ * - /ping queue limit <packets> [kb] - Cap the packets and data held per direction
+ * - /ping queue overflow drop|drop-movement|bypass - What happens to packets beyond the cap
+ * - /ping packets add|remove <id> - Delay any other packet by its id
+ * - /ping packets list - Show the extra delayed packet ids
+ * - /ping inbound on|off - Toggle server -> client delay
+ * - /ping inbound set <ms> - Set inbound delay (and enable it)
+ * - /ping inbound jitter <ms> - Set inbound jitter
+ * - /ping inbound toggle entities|knockback|combat|world - Toggle inbound categories
+ * - /ping hud on|off - Show or hide the HUD indicator
+ * - /ping hud graph on|off - Show or hide the delay/queue graph below it
+ * - /ping hud graph <seconds> - Time span covered by the graph
+ * - /ping stats - Show delay accuracy per packet category
+ * - /ping stats reset - Clear the recorded metrics
+ * - /ping stats export - Write the metrics to CSV and JSON in the config folder
+ * - /ping record start - Record every released packet to config/fakeping/recordings
+ * - /ping record stop - Finish the recording
  */
 public class PingCommand {
+    private static final SuggestionProvider<FabricClientCommandSource> TRACE_SUGGESTIONS = 
+        (ctx, builder) -> CommandSource.suggestMatching(listTraces(), builder);
+    private static final SuggestionProvider<FabricClientCommandSource> TIMELINE_SUGGESTIONS = 
+        (ctx, builder) -> CommandSource.suggestMatching(listTimelines(), builder);
+    private static final SuggestionProvider<FabricClientCommandSource> PRESET_SUGGESTIONS = 
+        (ctx, builder) -> CommandSource.suggestMatching(
+            FakePingMod.getPresetLibrary().getPresets().stream().map(LatencyPreset::getName), builder);
+    private static final StatsExporter EXPORTER = new StatsExporter(FakePingConfig.getExportDirectory());
+    
     
     public static void register(CommandDispatcher<FabricClientCommandSource> dispatcher) {
+        LiteralArgumentBuilder<FabricClientCommandSource> model = literal("model");
+        for (LatencyModelType type : LatencyModelType.values()) {
+            model.then(literal(type.getId())
+                .executes(ctx -> setLatencyModel(ctx, type)));
+        }
+        
+        LiteralArgumentBuilder<FabricClientCommandSource> release = literal("release");
+        for (ReleaseMode mode : ReleaseMode.values()) {
+            release.then(literal(mode.getId())
+                .executes(ctx -> setReleaseMode(ctx, mode)));
+        }
+        
+        LiteralArgumentBuilder<FabricClientCommandSource> order = literal("order");
+        for (OrderPolicy policy : OrderPolicy.values()) {
+            order.then(literal(policy.getId())
+                .executes(ctx -> setOrderPolicy(ctx, policy)));
+        }
+        
+        LiteralArgumentBuilder<FabricClientCommandSource> drain = literal("drain");
+        LiteralArgumentBuilder<FabricClientCommandSource> presetDrain = literal("drain");
+        for (DrainMode mode : DrainMode.values()) {
+            drain.then(literal(mode.getId())
+                .executes(ctx -> setDrainMode(ctx, mode)));
+            presetDrain.then(literal(mode.getId())
+                .executes(ctx -> setPresetDrainMode(ctx, mode)));
+        }
+        
+        LiteralArgumentBuilder<FabricClientCommandSource> overflow = literal("overflow");
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            overflow.then(literal(policy.getId())
+                .executes(ctx -> setOverflowPolicy(ctx, policy)));
+        }
+        
+        LiteralArgumentBuilder<FabricClientCommandSource> category = literal("category");
+        for (PacketCategory lane : ConfigSnapshot.LANE_CATEGORIES) {
+            LiteralArgumentBuilder<FabricClientCommandSource> laneModel = literal("model")
+                .then(literal("off")
+                    .executes(ctx -> updateCategory(ctx, lane, delay -> delay.withModel(null))));
+            for (LatencyModelType type : LatencyModelType.values()) {
+                laneModel.then(literal(type.getId())
+                    .executes(ctx -> updateCategory(ctx, lane, delay -> delay.withModel(type))));
+            }
+            category.then(literal(lane.getId())
+                .executes(ctx -> showCategory(ctx, lane))
+                .then(literal("delay")
+                    .then(argument("milliseconds", IntegerArgumentType.integer(0, 1000))
+                        .executes(ctx -> updateCategory(ctx, lane, 
+                            delay -> delay.withDelayMs(IntegerArgumentType.getInteger(ctx, "milliseconds")))))
+                    .then(literal("off")
+                        .executes(ctx -> updateCategory(ctx, lane, delay -> delay.withDelayMs(null)))))
+                .then(literal("jitter")
+                    .then(argument("milliseconds", IntegerArgumentType.integer(0, 100))
+                        .executes(ctx -> updateCategory(ctx, lane, 
+                            delay -> delay.withJitterMs(IntegerArgumentType.getInteger(ctx, "milliseconds")))))
+                    .then(literal("off")
+                        .executes(ctx -> updateCategory(ctx, lane, delay -> delay.withJitterMs(null)))))
+                .then(laneModel)
+                .then(literal("reset")
+                    .executes(ctx -> updateCategory(ctx, lane, delay -> CategoryDelay.NONE))));
+        }
+        
         dispatcher.register(literal("ping")
             .then(literal("set")
                 .then(argument("milliseconds", IntegerArgumentType.integer(0, 1000))
@@ -50,6 +202,136 @@ public class PingCommand {
                     .executes(ctx -> togglePacketType(ctx, "blocks")))
                 .then(literal("items")
                     .executes(ctx -> togglePacketType(ctx, "items"))))
+            .then(category)
+            .then(model)
+            .then(literal("bandwidth")
+                .then(argument("kbps", IntegerArgumentType.integer(1, 1_000_000))
+                    .executes(ctx -> setBandwidth(ctx, false)))
+                .then(literal("down")
+                    .then(argument("kbps", IntegerArgumentType.integer(1, 1_000_000))
+                        .executes(ctx -> setBandwidth(ctx, true))))
+                .then(literal("off")
+                    .executes(PingCommand::disableBandwidth)))
+            .then(literal("loss")
+                .then(argument("percent", DoubleArgumentType.doubleArg(0, 50))
+                    .executes(ctx -> setLoss(ctx, false))
+                    .then(literal("bursty")
+                        .executes(ctx -> setLoss(ctx, true))))
+                .then(literal("off")
+                    .executes(PingCommand::disableLoss)))
+            .then(literal("coalesce")
+                .then(argument("milliseconds", IntegerArgumentType.integer(1, 500))
+                    .executes(ctx -> setCoalescing(ctx, false))
+                    .then(argument("bytes", IntegerArgumentType.integer(1, 65535))
+                        .executes(ctx -> setCoalescing(ctx, true))))
+                .then(literal("off")
+                    .executes(PingCommand::disableCoalescing)))
+            .then(literal("trace")
+                .then(literal("load")
+                    .then(argument("name", StringArgumentType.word())
+                        .suggests(TRACE_SUGGESTIONS)
+                        .executes(PingCommand::loadTrace)))
+                .then(literal("list")
+                    .executes(PingCommand::listTraceFiles))
+                .then(literal("speed")
+                    .then(argument("factor", DoubleArgumentType.doubleArg(0.1, 100))
+                        .executes(PingCommand::setTraceSpeed)))
+                .then(literal("loop")
+                    .then(literal("on")
+                        .executes(ctx -> setTraceLoop(ctx, true)))
+                    .then(literal("off")
+                        .executes(ctx -> setTraceLoop(ctx, false))))
+                .then(literal("off")
+                    .executes(PingCommand::disableTrace)))
+            .then(literal("timeline")
+                .then(literal("play")
+                    .then(argument("name", StringArgumentType.word())
+                        .suggests(TIMELINE_SUGGESTIONS)
+                        .executes(ctx -> playTimeline(ctx, false))))
+                .then(literal("loop")
+                    .then(argument("name", StringArgumentType.word())
+                        .suggests(TIMELINE_SUGGESTIONS)
+                        .executes(ctx -> playTimeline(ctx, true))))
+                .then(literal("stop")
+                    .executes(PingCommand::stopTimeline))
+                .then(literal("list")
+                    .executes(PingCommand::listTimelineFiles)))
+            .then(release)
+            .then(order)
+            .then(drain)
+            .then(literal("preset")
+                .then(literal("list")
+                    .executes(PingCommand::listPresets))
+                .then(literal("reload")
+                    .executes(PingCommand::reloadPresets))
+                .then(presetDrain)
+                .then(argument("name", StringArgumentType.word())
+                    .suggests(PRESET_SUGGESTIONS)
+                    .executes(PingCommand::applyPreset)))
+            .then(literal("calibrate")
+                .then(literal("on")
+                    .executes(ctx -> setCalibrateRtt(ctx, true)))
+                .then(literal("off")
+                    .executes(ctx -> setCalibrateRtt(ctx, false))))
+            .then(literal("queue")
+                .then(literal("limit")
+                    .then(argument("packets", IntegerArgumentType.integer(16, 65536))
+                        .executes(ctx -> setQueueLimits(ctx, false))
+                        .then(argument("kb", IntegerArgumentType.integer(16, 65536))
+                            .executes(ctx -> setQueueLimits(ctx, true)))))
+                .then(overflow))
+            .then(literal("packets")
+                .then(literal("add")
+                    .then(argument("id", IdentifierArgumentType.identifier())
+                        .executes(PingCommand::addExtraPacket)))
+                .then(literal("remove")
+                    .then(argument("id", IdentifierArgumentType.identifier())
+                        .executes(PingCommand::removeExtraPacket)))
+                .then(literal("list")
+                    .executes(PingCommand::listExtraPackets)))
+            .then(literal("inbound")
+                .then(literal("on")
+                    .executes(ctx -> setInboundEnabled(ctx, true)))
+                .then(literal("off")
+                    .executes(ctx -> setInboundEnabled(ctx, false)))
+                .then(literal("set")
+                    .then(argument("milliseconds", IntegerArgumentType.integer(0, 1000))
+                        .executes(PingCommand::setInboundDelay)))
+                .then(literal("jitter")
+                    .then(argument("milliseconds", IntegerArgumentType.integer(0, 100))
+                        .executes(PingCommand::setInboundJitter)))
+                .then(literal("toggle")
+                    .then(literal("entities")
+                        .executes(ctx -> toggleInboundCategory(ctx, PacketCategory.ENTITIES)))
+                    .then(literal("knockback")
+                        .executes(ctx -> toggleInboundCategory(ctx, PacketCategory.KNOCKBACK)))
+                    .then(literal("combat")
+                        .executes(ctx -> toggleInboundCategory(ctx, PacketCategory.COMBAT)))
+                    .then(literal("world")
+                        .executes(ctx -> toggleInboundCategory(ctx, PacketCategory.WORLD)))))
+            .then(literal("hud")
+                .then(literal("on")
+                    .executes(ctx -> setShowHud(ctx, true)))
+                .then(literal("off")
+                    .executes(ctx -> setShowHud(ctx, false)))
+                .then(literal("graph")
+                    .then(literal("on")
+                        .executes(ctx -> setShowGraph(ctx, true)))
+                    .then(literal("off")
+                        .executes(ctx -> setShowGraph(ctx, false)))
+                    .then(argument("seconds", IntegerArgumentType.integer(1, 60))
+                        .executes(PingCommand::setGraphSeconds))))
+            .then(literal("stats")
+                .executes(PingCommand::showStats)
+                .then(literal("reset")
+                    .executes(PingCommand::resetStats))
+                .then(literal("export")
+                    .executes(PingCommand::exportStats)))
+            .then(literal("record")
+                .then(literal("start")
+                    .executes(PingCommand::startRecording))
+                .then(literal("stop")
+                    .executes(PingCommand::stopRecording)))
             .executes(PingCommand::showStatus)
         );
     }
@@ -58,8 +340,7 @@ public class PingCommand {
         int ms = IntegerArgumentType.getInteger(ctx, "milliseconds");
         FakePingConfig config = FakePingMod.getConfig();
         
-        config.setBaseDelayMs(ms);
-        config.setEnabled(true);
+        config.enableWithDelayMs(ms);
         
         ctx.getSource().sendFeedback(Text.literal("§aFake ping set to " + ms + "ms"));
         return 1;
@@ -67,11 +348,9 @@ public class PingCommand {
     
     private static int disablePing(CommandContext<FabricClientCommandSource> ctx) {
         FakePingConfig config = FakePingMod.getConfig();
+        // Queued packets are drained according to the drain mode
         config.setEnabled(false);
         
-        // Clear any queued packets
-        FakePingMod.getPacketDelayManager().clearQueue();
-        
         ctx.getSource().sendFeedback(Text.literal("§cFake ping disabled"));
         return 1;
     }
@@ -104,8 +383,57 @@ public class PingCommand {
             ctx.getSource().sendFeedback(Text.literal("§aEnabled: §fYes"));
             ctx.getSource().sendFeedback(Text.literal("§aBase Delay: §f" + 
                 config.getBaseDelayMs() + "ms"));
+            RttCalibrator calibrator = FakePingMod.getRttCalibrator();
+            int targetRtt = RttCalibrator.targetRttMs(config.snapshot());
+            if (config.isCalibrateRtt()) {
+                ctx.getSource().sendFeedback(Text.literal("§aRound Trip: §f" + 
+                    (calibrator.getMeasuredRttMs() >= 0 ? calibrator.getMeasuredRttMs() + "ms" : "measuring...") + 
+                    " measured / " + targetRtt + "ms target (correction " + 
+                    String.format(Locale.ROOT, "%+d", calibrator.getCorrectionMs()) + "ms)"));
+            } else {
+                // Nothing is measured without calibration
+                ctx.getSource().sendFeedback(Text.literal("§aRound Trip: §f" + targetRtt + "ms target (calibration off)"));
+            }
+            PacketDelayManager manager = FakePingMod.getPacketDelayManager();
+            if (manager != null && manager.getTimelineName() != null) {
+                ctx.getSource().sendFeedback(Text.literal("§aTimeline: §f" + manager.getTimelineName() + 
+                    (!manager.isTimelineActive() ? " (overridden by trace)" 
+                        : manager.isTimelineLooping() ? " (looping)" 
+                        : manager.isTimelineFinished() ? " (finished)" : "")));
+            }
             ctx.getSource().sendFeedback(Text.literal("§aJitter: §f±" + 
                 config.getJitterMs() + "ms"));
+            ctx.getSource().sendFeedback(Text.literal("§aModel: §f" + 
+                (config.snapshot().usesTrace() 
+                    ? "trace " + config.getTraceName() + " (x" + config.getTraceTimeScale() + 
+                        (config.isTraceLoop() ? ", looping)" : ")") 
+                    : config.getLatencyModel().getId())));
+            ctx.getSource().sendFeedback(Text.literal("§aBandwidth: §f" + 
+                formatKbps(config.getUplinkKbps()) + " up / " + formatKbps(config.getDownlinkKbps()) + " down"));
+            ctx.getSource().sendFeedback(Text.literal("§aPacket Loss: §f" + 
+                (config.getLossPercent() > 0 
+                    ? config.getLossPercent() + "%" + (config.isBurstyLoss() ? " (bursty)" : "") 
+                    : "off")));
+            ctx.getSource().sendFeedback(Text.literal("§aCoalescing: §f" + 
+                (config.getCoalesceWindowMs() > 0 
+                    ? config.getCoalesceWindowMs() + "ms / " + config.getCoalesceBytes() + " bytes" 
+                    : "off")));
+            ctx.getSource().sendFeedback(Text.literal("§aRelease: §f" + 
+                config.getReleaseMode().getId()));
+            ctx.getSource().sendFeedback(Text.literal("§aPacket Order: §f" + 
+                switch (config.getOrderPolicy()) {
+                    case PRESERVE_ORDER -> "preserved per lane";
+                    case GLOBAL_ORDER -> "preserved across lanes";
+                    case ALLOW_REORDER -> "reordering allowed";
+                }));
+            ctx.getSource().sendFeedback(Text.literal("§aDrain: §f" + 
+                config.getDrainMode().getId() + ", " + config.getPresetDrainMode().getId() + " on preset switch"));
+            if (config.getPresetName() != null) {
+                ctx.getSource().sendFeedback(Text.literal("§aPreset: §f" + config.getPresetName()));
+            }
+            ctx.getSource().sendFeedback(Text.literal("§aQueue Limit: §f" + 
+                config.getQueueMaxPackets() + " packets / " + config.getQueueMaxKb() + " KB, " + 
+                config.getOverflowPolicy().getId() + " on overflow"));
             
             ctx.getSource().sendFeedback(Text.literal("§6Delayed Packet Types:"));
             ctx.getSource().sendFeedback(Text.literal("  §7Attacks: " + 
@@ -118,9 +446,49 @@ public class PingCommand {
                 (config.shouldDelayBlockBreaking() ? "§aON" : "§cOFF")));
             ctx.getSource().sendFeedback(Text.literal("  §7Item Use: " + 
                 (config.shouldDelayItemUse() ? "§aON" : "§cOFF")));
+            for (PacketCategory lane : ConfigSnapshot.LANE_CATEGORIES) {
+                CategoryDelay delay = config.getCategoryDelay(lane);
+                if (!delay.isEmpty()) {
+                    ctx.getSource().sendFeedback(Text.literal("  §7Lane " + lane.getId() + ": §f" + 
+                        describeCategoryDelay(delay)));
+                }
+            }
+            if (!config.getExtraDelayedPackets().isEmpty()) {
+                ctx.getSource().sendFeedback(Text.literal("  §7Extra: §f" + 
+                    String.join(", ", config.getExtraDelayedPackets())));
+            }
+            
+            if (config.isInboundEnabled()) {
+                ctx.getSource().sendFeedback(Text.literal("§6Inbound: §f" + 
+                    config.getInboundDelayMs() + "ms ±" + config.getInboundJitterMs() + "ms" + 
+                    (config.snapshot().usesTrace() ? " §7(paused while a trace replays)" : "")));
+                ctx.getSource().sendFeedback(Text.literal("  §7Entities: " + 
+                    (config.shouldDelay(PacketCategory.ENTITIES) ? "§aON" : "§cOFF")));
+                ctx.getSource().sendFeedback(Text.literal("  §7Knockback: " + 
+                    (config.shouldDelay(PacketCategory.KNOCKBACK) ? "§aON" : "§cOFF")));
+                ctx.getSource().sendFeedback(Text.literal("  §7Combat: " + 
+                    (config.shouldDelay(PacketCategory.COMBAT) ? "§aON" : "§cOFF")));
+                ctx.getSource().sendFeedback(Text.literal("  §7World: " + 
+                    (config.shouldDelay(PacketCategory.WORLD) ? "§aON" : "§cOFF")));
+            } else {
+                ctx.getSource().sendFeedback(Text.literal("§6Inbound: §7off"));
+            }
             
-            int queueSize = FakePingMod.getPacketDelayManager().getQueueSize();
-            ctx.getSource().sendFeedback(Text.literal("§aQueued Packets: §f" + queueSize));
+            if (manager == null) {
+                ctx.getSource().sendFeedback(Text.literal("§7Not connected to a singleplayer world"));
+                return 1;
+            }
+            ctx.getSource().sendFeedback(Text.literal("§aQueued Packets: §f" + manager.getQueueSize()));
+            if (config.isInboundEnabled()) {
+                ctx.getSource().sendFeedback(Text.literal("§aQueued Inbound: §f" + manager.getInboundQueueSize()));
+            }
+            SessionRecorder recorder = manager.getRecorder();
+            if (recorder != null) {
+                ctx.getSource().sendFeedback(Text.literal("§aRecording: §f" + recorder.getName() + 
+                    " (" + recorder.getWritten() + " packets" + 
+                    (recorder.getLost() > 0 ? ", " + recorder.getLost() + " lost" : "") + 
+                    (recorder.hasFailed() ? ", §cwrite failed§f" : "") + ")"));
+            }
         } else {
             ctx.getSource().sendFeedback(Text.literal("§cEnabled: §fNo"));
             ctx.getSource().sendFeedback(Text.literal("§7Use §f/ping set <ms>§7 to enable"));
@@ -161,4 +529,610 @@ public class PingCommand {
         
         return 1;
     }
+    
+    private static int setReleaseMode(CommandContext<FabricClientCommandSource> ctx, ReleaseMode mode) {
+        FakePingConfig config = FakePingMod.getConfig();
+        
+        config.setReleaseMode(mode);
+        // Wake the release thread so it picks up the new mode
+        FakePingMod.getReleaseScheduler().wakeup(Long.MIN_VALUE);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aRelease mode set to " + mode.getId()));
+        return 1;
+    }
+    
+    private static int setOrderPolicy(CommandContext<FabricClientCommandSource> ctx, OrderPolicy policy) {
+        FakePingConfig config = FakePingMod.getConfig();
+        
+        config.setOrderPolicy(policy);
+        
+        String description = switch (policy) {
+            case PRESERVE_ORDER -> "packets keep their send order within each category lane";
+            case GLOBAL_ORDER -> "all packets keep one send order";
+            case ALLOW_REORDER -> "jitter may reorder packets";
+        };
+        ctx.getSource().sendFeedback(Text.literal("§aPacket order: " + description));
+        return 1;
+    }
+    
+    private static int setDrainMode(CommandContext<FabricClientCommandSource> ctx, DrainMode mode) {
+        FakePingMod.getConfig().setDrainMode(mode);
+        
+        String description = switch (mode) {
+            case FLUSH -> "queued packets are sent right away";
+            case DEADLINE -> "queued packets keep their deadlines";
+            case RETIME -> "queued packets move with the new delay";
+        };
+        ctx.getSource().sendFeedback(Text.literal("§aOn disable or delay change, " + description));
+        return 1;
+    }
+    
+    private static int applyPreset(CommandContext<FabricClientCommandSource> ctx) {
+        String name = StringArgumentType.getString(ctx, "name");
+        LatencyPreset preset = FakePingMod.getPresetLibrary().find(name);
+        if (preset == null) {
+            ctx.getSource().sendError(Text.literal("No preset named " + name + " (try /ping preset reload)"));
+            return 0;
+        }
+        
+        FakePingMod.getConfig().applyPreset(preset);
+        ctx.getSource().sendFeedback(Text.literal("§aSwitched to preset " + name + 
+            " (" + preset.size() + " settings)"));
+        return 1;
+    }
+    
+    private static int listPresets(CommandContext<FabricClientCommandSource> ctx) {
+        List<LatencyPreset> presets = FakePingMod.getPresetLibrary().getPresets();
+        
+        if (presets.isEmpty()) {
+            ctx.getSource().sendFeedback(Text.literal("§7No presets in " + FakePingConfig.getPresetDirectory()));
+        } else {
+            ctx.getSource().sendFeedback(Text.literal("§6Presets: §f" + 
+                String.join(", ", presets.stream().map(LatencyPreset::getName).toList())));
+        }
+        return 1;
+    }
+    
+    private static int reloadPresets(CommandContext<FabricClientCommandSource> ctx) {
+        int count = FakePingMod.getPresetLibrary().load();
+        
+        ctx.getSource().sendFeedback(Text.literal("§aLoaded " + count + " presets"));
+        return 1;
+    }
+    
+    private static int setPresetDrainMode(CommandContext<FabricClientCommandSource> ctx, DrainMode mode) {
+        FakePingMod.getConfig().setPresetDrainMode(mode);
+        
+        String description = switch (mode) {
+            case FLUSH -> "queued packets are sent right away";
+            case DEADLINE -> "queued packets keep their deadlines";
+            case RETIME -> "queued packets move with the new delay";
+        };
+        ctx.getSource().sendFeedback(Text.literal("§aOn preset switch, " + description));
+        return 1;
+    }
+    
+    private static int setCalibrateRtt(CommandContext<FabricClientCommandSource> ctx, boolean calibrate) {
+        FakePingMod.getConfig().setCalibrateRtt(calibrate);
+        
+        ctx.getSource().sendFeedback(Text.literal(calibrate 
+            ? "§aThe delay is now corrected until the measured round trip matches the target" 
+            : "§aThe configured delay is applied as is"));
+        return 1;
+    }
+    
+    private static int setQueueLimits(CommandContext<FabricClientCommandSource> ctx, boolean withKb) {
+        int packets = IntegerArgumentType.getInteger(ctx, "packets");
+        FakePingConfig config = FakePingMod.getConfig();
+        int kb = withKb ? IntegerArgumentType.getInteger(ctx, "kb") : config.getQueueMaxKb();
+        
+        config.setQueueLimits(packets, kb);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aEach direction holds at most " + packets + 
+            " packets or " + kb + " KB"));
+        return 1;
+    }
+    
+    private static int setOverflowPolicy(CommandContext<FabricClientCommandSource> ctx, OverflowPolicy policy) {
+        FakePingMod.getConfig().setOverflowPolicy(policy);
+        
+        String description = switch (policy) {
+            case DROP_NEWEST -> "new packets are dropped";
+            case DROP_OLDEST_MOVEMENT -> "the oldest queued movement packets are dropped";
+            case BYPASS -> "new packets are sent without delay, ahead of queued ones";
+        };
+        ctx.getSource().sendFeedback(Text.literal("§aWhen a queue is full, " + description));
+        return 1;
+    }
+    
+    private static int addExtraPacket(CommandContext<FabricClientCommandSource> ctx) {
+        String id = ctx.getArgument("id", Identifier.class).toString();
+        
+        if (FakePingMod.getConfig().addExtraDelayedPacket(id)) {
+            ctx.getSource().sendFeedback(Text.literal("§aNow delaying " + id + " packets"));
+        } else {
+            ctx.getSource().sendFeedback(Text.literal("§7" + id + " is already delayed"));
+        }
+        return 1;
+    }
+    
+    private static int removeExtraPacket(CommandContext<FabricClientCommandSource> ctx) {
+        String id = ctx.getArgument("id", Identifier.class).toString();
+        
+        if (FakePingMod.getConfig().removeExtraDelayedPacket(id)) {
+            ctx.getSource().sendFeedback(Text.literal("§cNo longer delaying " + id + " packets"));
+        } else {
+            ctx.getSource().sendFeedback(Text.literal("§7" + id + " is not in the list"));
+        }
+        return 1;
+    }
+    
+    private static int listExtraPackets(CommandContext<FabricClientCommandSource> ctx) {
+        FakePingConfig config = FakePingMod.getConfig();
+        
+        if (config.getExtraDelayedPackets().isEmpty()) {
+            ctx.getSource().sendFeedback(Text.literal("§7No extra packets delayed"));
+        } else {
+            ctx.getSource().sendFeedback(Text.literal("§6Extra delayed packets: §f" + 
+                String.join(", ", config.getExtraDelayedPackets())));
+        }
+        return 1;
+    }
+    
+    private static int setInboundEnabled(CommandContext<FabricClientCommandSource> ctx, boolean enabled) {
+        FakePingConfig config = FakePingMod.getConfig();
+        
+        config.setInboundEnabled(enabled);
+        
+        if (enabled) {
+            ctx.getSource().sendFeedback(Text.literal("§aInbound delay enabled (" + 
+                config.getInboundDelayMs() + "ms)"));
+        } else {
+            ctx.getSource().sendFeedback(Text.literal("§cInbound delay disabled"));
+        }
+        return 1;
+    }
+    
+    private static int setInboundDelay(CommandContext<FabricClientCommandSource> ctx) {
+        int ms = IntegerArgumentType.getInteger(ctx, "milliseconds");
+        FakePingConfig config = FakePingMod.getConfig();
+        
+        config.enableInboundWithDelayMs(ms);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aInbound delay set to " + ms + "ms"));
+        return 1;
+    }
+    
+    private static int setInboundJitter(CommandContext<FabricClientCommandSource> ctx) {
+        int ms = IntegerArgumentType.getInteger(ctx, "milliseconds");
+        
+        FakePingMod.getConfig().setInboundJitterMs(ms);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aInbound jitter set to ±" + ms + "ms"));
+        return 1;
+    }
+    
+    private static int toggleInboundCategory(CommandContext<FabricClientCommandSource> ctx, PacketCategory category) {
+        FakePingConfig config = FakePingMod.getConfig();
+        boolean newState = !config.shouldDelay(category);
+        
+        config.setDelayInbound(category, newState);
+        
+        String status = newState ? "§aenabled" : "§cdisabled";
+        ctx.getSource().sendFeedback(Text.literal("§6Inbound delay for " + category.getId() + " " + status));
+        return 1;
+    }
+    
+    private static int updateCategory(CommandContext<FabricClientCommandSource> ctx, PacketCategory category, 
+                                      UnaryOperator<CategoryDelay> change) {
+        FakePingMod.getConfig().updateCategoryDelay(category, change);
+        return showCategory(ctx, category);
+    }
+    
+    private static int showCategory(CommandContext<FabricClientCommandSource> ctx, PacketCategory category) {
+        ctx.getSource().sendFeedback(Text.literal("§a" + category.getId() + ": §f" + 
+            describeCategoryDelay(FakePingMod.getConfig().getCategoryDelay(category))));
+        return 1;
+    }
+    
+    /**
+     * The category's delay settings, with "global" for anything not set.
+     */
+    private static String describeCategoryDelay(CategoryDelay delay) {
+        if (delay.isEmpty()) {
+            return "global settings";
+        }
+        return (delay.delayMs() != null ? delay.delayMs() + "ms" : "global delay") + 
+            " ±" + (delay.jitterMs() != null ? delay.jitterMs() + "ms" : "global jitter") + 
+            ", " + (delay.model() != null ? delay.model().getId() : "global") + " model (own lane)";
+    }
+    
+    private static int setLatencyModel(CommandContext<FabricClientCommandSource> ctx, LatencyModelType type) {
+        FakePingMod.getConfig().setLatencyModel(type);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aLatency model set to " + type.getId()));
+        return 1;
+    }
+    
+    private static int setBandwidth(CommandContext<FabricClientCommandSource> ctx, boolean downlink) {
+        int kbps = IntegerArgumentType.getInteger(ctx, "kbps");
+        FakePingConfig config = FakePingMod.getConfig();
+        
+        if (downlink) {
+            config.setDownlinkKbps(kbps);
+        } else {
+            config.setUplinkKbps(kbps);
+        }
+        
+        ctx.getSource().sendFeedback(Text.literal("§a" + (downlink ? "Downlink" : "Uplink") + 
+            " bandwidth limited to " + kbps + " kbit/s"));
+        return 1;
+    }
+    
+    private static int disableBandwidth(CommandContext<FabricClientCommandSource> ctx) {
+        FakePingMod.getConfig().setBandwidth(0, 0);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aBandwidth limits removed"));
+        return 1;
+    }
+    
+    private static String formatKbps(int kbps) {
+        return kbps > 0 ? kbps + " kbit/s" : "unlimited";
+    }
+    
+    private static int setLoss(CommandContext<FabricClientCommandSource> ctx, boolean bursty) {
+        double percent = DoubleArgumentType.getDouble(ctx, "percent");
+        
+        FakePingMod.getConfig().setLoss(percent, bursty);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aPacket loss set to " + percent + "%" + 
+            (bursty ? " (bursty)" : "")));
+        return 1;
+    }
+    
+    private static int disableLoss(CommandContext<FabricClientCommandSource> ctx) {
+        FakePingMod.getConfig().setLoss(0, false);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aPacket loss disabled"));
+        return 1;
+    }
+    
+    private static int setShowHud(CommandContext<FabricClientCommandSource> ctx, boolean show) {
+        FakePingMod.getConfig().setShowHud(show);
+        
+        ctx.getSource().sendFeedback(Text.literal(show ? "§aHUD shown" : "§cHUD hidden"));
+        return 1;
+    }
+    
+    private static int setShowGraph(CommandContext<FabricClientCommandSource> ctx, boolean show) {
+        FakePingMod.getConfig().setShowGraph(show);
+        
+        ctx.getSource().sendFeedback(Text.literal(show ? "§aDelay graph shown" : "§cDelay graph hidden"));
+        return 1;
+    }
+    
+    private static int setGraphSeconds(CommandContext<FabricClientCommandSource> ctx) {
+        int seconds = IntegerArgumentType.getInteger(ctx, "seconds");
+        
+        FakePingMod.getConfig().showGraphSeconds(seconds);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aDelay graph shows the last " + seconds + "s"));
+        return 1;
+    }
+    
+    private static int setCoalescing(CommandContext<FabricClientCommandSource> ctx, boolean withBytes) {
+        int ms = IntegerArgumentType.getInteger(ctx, "milliseconds");
+        FakePingConfig config = FakePingMod.getConfig();
+        int bytes = withBytes ? IntegerArgumentType.getInteger(ctx, "bytes") : config.getCoalesceBytes();
+        
+        config.setCoalescing(ms, bytes);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aCoalescing outbound packets for up to " + ms + 
+            "ms or " + bytes + " bytes"));
+        return 1;
+    }
+    
+    private static int disableCoalescing(CommandContext<FabricClientCommandSource> ctx) {
+        FakePingConfig config = FakePingMod.getConfig();
+        
+        config.setCoalescing(0, config.getCoalesceBytes());
+        
+        ctx.getSource().sendFeedback(Text.literal("§aCoalescing disabled"));
+        return 1;
+    }
+    
+    private static int loadTrace(CommandContext<FabricClientCommandSource> ctx) {
+        String name = StringArgumentType.getString(ctx, "name");
+        FabricClientCommandSource source = ctx.getSource();
+        
+        // Reading (or converting) the trace can take a moment, keep it off the client thread
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return LatencyTrace.load(FakePingConfig.getTraceDirectory(), name);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((trace, error) -> MinecraftClient.getInstance().execute(() -> {
+            if (error != null) {
+                source.sendError(Text.literal("Failed to load trace: " + error.getCause().getMessage()));
+                return;
+            }
+            
+            // Hand the loaded trace over (restarting it if it was already playing),
+            // then switch the config to it
+            PacketDelayManager manager = FakePingMod.getPacketDelayManager();
+            if (manager != null) {
+                manager.playTrace(name, trace);
+            }
+            FakePingMod.getConfig().setTraceName(name);
+            
+            source.sendFeedback(Text.literal("§aReplaying trace " + name + " (" + trace.size() + 
+                " samples, " + formatDuration(trace.durationMs()) + ")"));
+        }));
+        return 1;
+    }
+    
+    private static int listTraceFiles(CommandContext<FabricClientCommandSource> ctx) {
+        List<String> traces = listTraces();
+        
+        if (traces.isEmpty()) {
+            ctx.getSource().sendFeedback(Text.literal("§7No traces in " + FakePingConfig.getTraceDirectory()));
+        } else {
+            ctx.getSource().sendFeedback(Text.literal("§6Traces: §f" + String.join(", ", traces)));
+        }
+        return 1;
+    }
+    
+    private static int setTraceSpeed(CommandContext<FabricClientCommandSource> ctx) {
+        double factor = DoubleArgumentType.getDouble(ctx, "factor");
+        
+        FakePingMod.getConfig().setTraceTimeScale(factor);
+        
+        ctx.getSource().sendFeedback(Text.literal("§aTrace replay speed set to x" + factor));
+        return 1;
+    }
+    
+    private static int setTraceLoop(CommandContext<FabricClientCommandSource> ctx, boolean loop) {
+        FakePingMod.getConfig().setTraceLoop(loop);
+        
+        ctx.getSource().sendFeedback(Text.literal(loop 
+            ? "§aTrace will loop" : "§aTrace will hold its last value when it ends"));
+        return 1;
+    }
+    
+    private static int disableTrace(CommandContext<FabricClientCommandSource> ctx) {
+        FakePingMod.getConfig().setTraceName("");
+        
+        ctx.getSource().sendFeedback(Text.literal("§aTrace replay stopped, using the " + 
+            FakePingMod.getConfig().getLatencyModel().getId() + " model"));
+        return 1;
+    }
+    
+    private static int playTimeline(CommandContext<FabricClientCommandSource> ctx, boolean loop) {
+        String name = StringArgumentType.getString(ctx, "name");
+        
+        LatencyTimeline timeline;
+        try {
+            timeline = LatencyTimeline.load(FakePingConfig.getTimelineDirectory(), name);
+        } catch (IOException e) {
+            ctx.getSource().sendError(Text.literal("Failed to load timeline: " + e.getMessage()));
+            return 0;
+        }
+        
+        PacketDelayManager manager = requireManager(ctx);
+        if (manager == null) {
+            return 0;
+        }
+        manager.playTimeline(name, timeline, loop);
+        
+        ctx.getSource().sendFeedback(Text.literal("§a" + (loop ? "Looping" : "Playing") + " timeline " + name + 
+            " (" + timeline.size() + " segments, " + 
+            formatDuration((int) (timeline.durationNanos() / 1_000_000L)) + ")"));
+        if (!manager.isTimelineActive()) {
+            ctx.getSource().sendFeedback(Text.literal("§eA trace is replaying; the timeline takes effect after /ping trace off"));
+        }
+        return 1;
+    }
+    
+    private static int stopTimeline(CommandContext<FabricClientCommandSource> ctx) {
+        PacketDelayManager manager = requireManager(ctx);
+        if (manager == null) {
+            return 0;
+        }
+        manager.stopTimeline();
+        
+        ctx.getSource().sendFeedback(Text.literal("§aTimeline stopped, back to " + 
+            FakePingMod.getConfig().getBaseDelayMs() + "ms"));
+        return 1;
+    }
+    
+    private static int listTimelineFiles(CommandContext<FabricClientCommandSource> ctx) {
+        List<String> timelines = listTimelines();
+        
+        if (timelines.isEmpty()) {
+            ctx.getSource().sendFeedback(Text.literal("§7No timelines in " + FakePingConfig.getTimelineDirectory()));
+        } else {
+            ctx.getSource().sendFeedback(Text.literal("§6Timelines: §f" + String.join(", ", timelines)));
+        }
+        return 1;
+    }
+    
+    /**
+     * Names of the traces available as CSV or binary files.
+     */
+    private static List<String> listTraces() {
+        return listNames(FakePingConfig.getTraceDirectory(), LatencyTrace.EXTENSION, ".csv");
+    }
+    
+    /**
+     * Names of the timelines available.
+     */
+    private static List<String> listTimelines() {
+        return listNames(FakePingConfig.getTimelineDirectory(), LatencyTimeline.EXTENSION);
+    }
+    
+    /**
+     * Names (without extension) of the files in a directory with one of the given extensions.
+     */
+    private static List<String> listNames(Path directory, String... extensions) {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                .filter(file -> Stream.of(extensions).anyMatch(file::endsWith))
+                .map(file -> file.substring(0, file.lastIndexOf('.')))
+                .distinct()
+                .sorted()
+                .toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+    
+    private static String formatDuration(int ms) {
+        int seconds = ms / 1000;
+        return seconds >= 3600 
+            ? String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60)
+            : String.format(Locale.ROOT, "%d:%02d", seconds / 60, seconds % 60);
+    }
+    
+    private static int showStats(CommandContext<FabricClientCommandSource> ctx) {
+        PacketDelayManager manager = requireManager(ctx);
+        if (manager == null) {
+            return 0;
+        }
+        DelayMetrics metrics = manager.getMetrics();
+        List<DelayMetrics.CategoryStats> stats = collectStats(metrics);
+        
+        ctx.getSource().sendFeedback(Text.literal("§6§l=== FakePing Stats ==="));
+        if (stats.isEmpty()) {
+            ctx.getSource().sendFeedback(Text.literal("§7No delayed packets recorded yet"));
+            return 1;
+        }
+        
+        ctx.getSource().sendFeedback(Text.literal("§7p50 / p90 / p99 / max in ms"));
+        for (DelayMetrics.CategoryStats category : stats) {
+            ctx.getSource().sendFeedback(Text.literal("§6" + category.category().getId() + ": §f" + 
+                category.appliedDelay().count() + " packets, " + 
+                String.format(Locale.ROOT, "%.1f", category.packetsPerSecond()) + "/s, max queued " + 
+                category.depthHighWater()));
+            ctx.getSource().sendFeedback(Text.literal("  §7Target: §f" + formatSummary(category.targetDelay())));
+            ctx.getSource().sendFeedback(Text.literal("  §7Actual: §f" + formatSummary(category.appliedDelay())));
+            ctx.getSource().sendFeedback(Text.literal("  §7Late: §f" + formatSummary(category.lateness())));
+        }
+        
+        DelayMetrics.ReleaseStats release = metrics.getReleaseStats();
+        ctx.getSource().sendFeedback(Text.literal("§6Event loop: §f" + 
+            String.format(Locale.ROOT, "%.1f tasks/s, %.1f flushes/s, %.1f packets per flush",
+                release.tasksPerSecond(), release.flushesPerSecond(), release.packetsPerFlush())));
+        DelayMetrics.OverflowStats overflow = metrics.getOverflowStats();
+        if (overflow.total() > 0) {
+            ctx.getSource().sendFeedback(Text.literal("§6Overflow: §f" + overflow.dropped() + " dropped, " + 
+                overflow.evicted() + " evicted, " + overflow.bypassed() + " sent undelayed"));
+        }
+        return 1;
+    }
+    
+    private static int resetStats(CommandContext<FabricClientCommandSource> ctx) {
+        PacketDelayManager manager = requireManager(ctx);
+        if (manager == null) {
+            return 0;
+        }
+        manager.getMetrics().reset();
+        
+        ctx.getSource().sendFeedback(Text.literal("§aStats reset"));
+        return 1;
+    }
+    
+    private static int exportStats(CommandContext<FabricClientCommandSource> ctx) {
+        FabricClientCommandSource source = ctx.getSource();
+        
+        PacketDelayManager manager = requireManager(ctx);
+        if (manager == null) {
+            return 0;
+        }
+        DelayMetrics metrics = manager.getMetrics();
+        EXPORTER.export(collectStats(metrics), metrics.getReleaseStats()).whenComplete((path, error) -> 
+            MinecraftClient.getInstance().execute(() -> {
+                if (error == null) {
+                    source.sendFeedback(Text.literal("§aStats written to " + path.getFileName() + " (and .json)"));
+                } else {
+                    FakePingMod.LOGGER.error("Failed to export stats", error);
+                    source.sendError(Text.literal("Failed to export stats: " + error.getMessage()));
+                }
+            }));
+        return 1;
+    }
+    
+    private static int startRecording(CommandContext<FabricClientCommandSource> ctx) {
+        PacketDelayManager manager = requireManager(ctx);
+        if (manager == null) {
+            return 0;
+        }
+        SessionRecorder recorder;
+        try {
+            recorder = manager.startRecording(FakePingConfig.getRecordingDirectory());
+        } catch (IOException e) {
+            FakePingMod.LOGGER.error("Failed to start recording", e);
+            ctx.getSource().sendError(Text.literal("Failed to start recording: " + e.getMessage()));
+            return 0;
+        }
+        
+        ctx.getSource().sendFeedback(Text.literal("§aRecording released packets to " + recorder.getName()));
+        return 1;
+    }
+    
+    private static int stopRecording(CommandContext<FabricClientCommandSource> ctx) {
+        FabricClientCommandSource source = ctx.getSource();
+        
+        PacketDelayManager manager = requireManager(ctx);
+        if (manager == null) {
+            return 0;
+        }
+        SessionRecorder recorder = manager.stopRecording();
+        if (recorder == null) {
+            source.sendFeedback(Text.literal("§7No recording is running"));
+            return 1;
+        }
+        // Reported once the writer thread has flushed and closed the file
+        recorder.whenClosed().thenRun(() -> 
+            MinecraftClient.getInstance().execute(() -> 
+                source.sendFeedback(Text.literal("§aRecording " + recorder.getName() + " saved (" + 
+                    recorder.getWritten() + " packets" + 
+                    (recorder.getLost() > 0 ? ", " + recorder.getLost() + " lost" : "") + ")"))));
+        return 1;
+    }
+    
+    /**
+     * Stats of every category that has seen packets since the last reset.
+     */
+    private static List<DelayMetrics.CategoryStats> collectStats(DelayMetrics metrics) {
+        List<DelayMetrics.CategoryStats> stats = new ArrayList<>();
+        for (PacketCategory category : PacketCategory.values()) {
+            DelayMetrics.CategoryStats categoryStats = metrics.getStats(category);
+            if (categoryStats.targetDelay().count() > 0) {
+                stats.add(categoryStats);
+            }
+        }
+        return stats;
+    }
+    
+    /**
+     * Delay manager of the current connection. Outside singleplayer there is none;
+     * then the player is told so and null is returned.
+     */
+    @Nullable
+    private static PacketDelayManager requireManager(CommandContext<FabricClientCommandSource> ctx) {
+        PacketDelayManager manager = FakePingMod.getPacketDelayManager();
+        if (manager == null) {
+            ctx.getSource().sendError(Text.literal("Fake ping only works in singleplayer worlds"));
+        }
+        return manager;
+    }
+    
+    private static String formatSummary(LatencyHistogram.Summary summary) {
+        return String.format(Locale.ROOT, "%.1f / %.1f / %.1f / %.1f",
+            summary.p50() / 1000.0, summary.p90() / 1000.0, summary.p99() / 1000.0, summary.max() / 1000.0);
+    }
 }
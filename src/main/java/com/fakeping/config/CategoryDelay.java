@@ -0,0 +1,53 @@
+package com.fakeping.config;
+
+/**
+ * Delay settings of one outbound category that replace the global ones. Packets
+ * of a category with its own settings travel in a lane of their own, so a long
+ * delay on one category doesn't hold up the others.
+ * 
+ * Missing (null) values fall back to the global setting.
+ * 
+ * @param delayMs Base delay
+ * @param jitterMs Jitter
+ * @param model Latency model
+ */
+public record CategoryDelay(Integer delayMs, Integer jitterMs, LatencyModelType model) {
+    public static final CategoryDelay NONE = new CategoryDelay(null, null, null);
+    
+    public CategoryDelay withDelayMs(Integer delayMs) {
+        return new CategoryDelay(delayMs, jitterMs, model);
+    }
+    
+    public CategoryDelay withJitterMs(Integer jitterMs) {
+        return new CategoryDelay(delayMs, jitterMs, model);
+    }
+    
+    public CategoryDelay withModel(LatencyModelType model) {
+        return new CategoryDelay(delayMs, jitterMs, model);
+    }
+    
+    /**
+     * Whether nothing is overridden.
+     */
+    public boolean isEmpty() {
+        return delayMs == null && jitterMs == null && model == null;
+    }
+    
+    /**
+     * Whether the lane needs a latency model of its own rather than the global one
+     * (which may be replaying a trace or timeline that ignores the base delay).
+     */
+    public boolean hasOwnModel() {
+        return delayMs != null || model != null;
+    }
+    
+    /**
+     * Same settings with values clamped to the ranges of the global ones.
+     */
+    CategoryDelay clamped() {
+        return new CategoryDelay(
+                delayMs != null ? Math.max(0, Math.min(1000, delayMs)) : null,
+                jitterMs != null ? Math.max(0, Math.min(100, jitterMs)) : null,
+                model);
+    }
+}
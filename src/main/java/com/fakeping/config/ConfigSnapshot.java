@@ -0,0 +1,352 @@
+package com.fakeping.config;
+
+import com.fakeping.engine.DelayParams;
+import com.fakeping.network.PacketCategory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of all FakePing settings.
+ * 
+ * {@link FakePingConfig} publishes a new snapshot on every change, so readers on
+ * any thread always see a consistent set of values without locking. Changes are
+ * made through a {@link Builder}, which is also the shape written to fakeping.json.
+ * 
+ * The last components are derived from the others by {@link Builder#build()} so
+ * the packet path can use them directly: one volatile read of the snapshot gives
+ * a packet everything it needs.
+ * 
+ * @param delayMask Bit per {@link PacketCategory} ordinal that is delayed (derived)
+ * @param inboundActive Fake ping and inbound delay both enabled and no trace replaying (derived)
+ * @param retransmitTimeoutNanos TCP retransmission timeout for the simulated round trip (derived)
+ * @param outboundParams Delay pipeline settings for client -> server packets (derived)
+ * @param inboundParams Delay pipeline settings for server -> client packets (derived)
+ * @param categoryParams Outbound settings per {@link PacketCategory} ordinal, which
+ *                       are the outboundParams unless the category has its own lane (derived)
+ */
+public record ConfigSnapshot(
+        boolean enabled,
+        int baseDelayMs,
+        int jitterMs,
+        boolean delayAttacks,
+        boolean delayMovement,
+        boolean delayInteractions,
+        boolean delayBlockBreaking,
+        boolean delayItemUse,
+        boolean showHud,
+        boolean showGraph,
+        int graphSeconds,
+        ReleaseMode releaseMode,
+        OrderPolicy orderPolicy,
+        DrainMode drainMode,
+        DrainMode presetDrainMode,
+        String presetName,
+        LatencyModelType latencyModel,
+        String traceName,
+        double traceTimeScale,
+        boolean traceLoop,
+        int uplinkKbps,
+        int downlinkKbps,
+        double lossPercent,
+        boolean burstyLoss,
+        int coalesceWindowMs,
+        int coalesceBytes,
+        int queueMaxPackets,
+        int queueMaxKb,
+        OverflowPolicy overflowPolicy,
+        boolean calibrateRtt,
+        List<String> extraDelayedPackets,
+        Map<PacketCategory, CategoryDelay> categoryDelays,
+        boolean inboundEnabled,
+        int inboundDelayMs,
+        int inboundJitterMs,
+        boolean delayEntities,
+        boolean delayKnockback,
+        boolean delayCombat,
+        boolean delayWorld,
+        int delayMask,
+        boolean inboundActive,
+        long retransmitTimeoutNanos,
+        DelayParams outboundParams,
+        DelayParams inboundParams,
+        List<DelayParams> categoryParams) {
+    
+    /** Categories that can be given their own delay settings. */
+    public static final List<PacketCategory> LANE_CATEGORIES = List.of(
+            PacketCategory.ATTACKS, PacketCategory.MOVEMENT, PacketCategory.INTERACTIONS, 
+            PacketCategory.BLOCKS, PacketCategory.ITEMS);
+    /** Number of outbound lanes: the default lane plus one per category. */
+    public static final int LANES = PacketCategory.values().length + 1;
+    
+    public static final ConfigSnapshot DEFAULTS = new Builder().build();
+    
+    /**
+     * Outbound delay pipeline settings for a packet of the given category.
+     */
+    public DelayParams outboundParams(PacketCategory category) {
+        return categoryParams.get(category.ordinal());
+    }
+    
+    /**
+     * The category's own delay settings, or {@link CategoryDelay#NONE}.
+     */
+    public CategoryDelay categoryDelay(PacketCategory category) {
+        return categoryDelays.getOrDefault(category, CategoryDelay.NONE);
+    }
+    
+    /**
+     * Lane of the outbound pipeline a category gets when it has its own settings.
+     */
+    public static int laneOf(PacketCategory category) {
+        return category.ordinal() + 1;
+    }
+    
+    /**
+     * Whether packets of the given category are delayed.
+     */
+    public boolean delays(PacketCategory category) {
+        return (delayMask & (1 << category.ordinal())) != 0;
+    }
+    
+    /**
+     * Whether a recorded trace replaces the latency model for outbound packets.
+     */
+    public boolean usesTrace() {
+        return !traceName.isEmpty();
+    }
+    
+    /**
+     * Whether packets are released in send order.
+     */
+    public boolean preserveOrder() {
+        return orderPolicy != OrderPolicy.ALLOW_REORDER;
+    }
+    
+    /**
+     * Mutable copy of this snapshot for making changes.
+     */
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.enabled = enabled;
+        b.baseDelayMs = baseDelayMs;
+        b.jitterMs = jitterMs;
+        b.delayAttacks = delayAttacks;
+        b.delayMovement = delayMovement;
+        b.delayInteractions = delayInteractions;
+        b.delayBlockBreaking = delayBlockBreaking;
+        b.delayItemUse = delayItemUse;
+        b.showHud = showHud;
+        b.showGraph = showGraph;
+        b.graphSeconds = graphSeconds;
+        b.releaseMode = releaseMode;
+        b.orderPolicy = orderPolicy;
+        b.drainMode = drainMode;
+        b.presetDrainMode = presetDrainMode;
+        b.presetName = presetName;
+        b.latencyModel = latencyModel;
+        b.traceName = traceName;
+        b.traceTimeScale = traceTimeScale;
+        b.traceLoop = traceLoop;
+        b.uplinkKbps = uplinkKbps;
+        b.downlinkKbps = downlinkKbps;
+        b.lossPercent = lossPercent;
+        b.burstyLoss = burstyLoss;
+        b.coalesceWindowMs = coalesceWindowMs;
+        b.coalesceBytes = coalesceBytes;
+        b.queueMaxPackets = queueMaxPackets;
+        b.queueMaxKb = queueMaxKb;
+        b.overflowPolicy = overflowPolicy;
+        b.calibrateRtt = calibrateRtt;
+        b.extraDelayedPackets = new ArrayList<>(extraDelayedPackets);
+        b.categoryDelays = new EnumMap<>(PacketCategory.class);
+        b.categoryDelays.putAll(categoryDelays);
+        b.inboundEnabled = inboundEnabled;
+        b.inboundDelayMs = inboundDelayMs;
+        b.inboundJitterMs = inboundJitterMs;
+        b.delayEntities = delayEntities;
+        b.delayKnockback = delayKnockback;
+        b.delayCombat = delayCombat;
+        b.delayWorld = delayWorld;
+        return b;
+    }
+    
+    /**
+     * Mutable settings. Field initializers are the defaults, which also fill in
+     * anything missing from an older config file when Gson reads it.
+     */
+    public static class Builder {
+        public boolean enabled = false;
+        public int baseDelayMs = 150;
+        public int jitterMs = 20;
+        public boolean delayAttacks = true;
+        public boolean delayMovement = true;
+        public boolean delayInteractions = true;
+        public boolean delayBlockBreaking = true;
+        public boolean delayItemUse = true;
+        public boolean showHud = true;
+        public boolean showGraph = false;
+        public int graphSeconds = 10;
+        public ReleaseMode releaseMode = ReleaseMode.SCHEDULER;
+        public OrderPolicy orderPolicy = OrderPolicy.PRESERVE_ORDER;
+        public DrainMode drainMode = DrainMode.FLUSH;
+        // What happens to queued packets when switching presets
+        public DrainMode presetDrainMode = DrainMode.DEADLINE;
+        // Preset last switched to, null for none; not saved
+        public transient String presetName;
+        public LatencyModelType latencyModel = LatencyModelType.UNIFORM;
+        // Recorded trace replayed instead of the latency model, empty for none
+        public String traceName = "";
+        public double traceTimeScale = 1.0;
+        public boolean traceLoop = true;
+        public int uplinkKbps = 0;
+        public int downlinkKbps = 0;
+        public double lossPercent = 0;
+        public boolean burstyLoss = false;
+        // Nagle-style coalescing of outbound packets, 0 ms for off
+        public int coalesceWindowMs = 0;
+        public int coalesceBytes = 1460;
+        // Caps per direction, and what happens to packets beyond them
+        public int queueMaxPackets = 4096;
+        public int queueMaxKb = 1024;
+        public OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST_MOVEMENT;
+        // Adjust the applied delay until the measured round trip matches the configured one
+        public boolean calibrateRtt = false;
+        public List<String> extraDelayedPackets = new ArrayList<>();
+        // Categories with their own delay, jitter or model, each in a lane of its own
+        public Map<PacketCategory, CategoryDelay> categoryDelays = new EnumMap<>(PacketCategory.class);
+        
+        // Inbound (server -> client) delay
+        public boolean inboundEnabled = false;
+        public int inboundDelayMs = 75;
+        public int inboundJitterMs = 10;
+        public boolean delayEntities = true;
+        public boolean delayKnockback = true;
+        public boolean delayCombat = true;
+        public boolean delayWorld = true;
+        
+        /**
+         * Validate the values (clamping ranges, replacing missing enums), compute the
+         * derived values and freeze them.
+         */
+        public ConfigSnapshot build() {
+            List<String> extras = extraDelayedPackets != null ? List.copyOf(extraDelayedPackets) : List.of();
+            int base = clamp(baseDelayMs, 0, 1000);
+            int inboundDelay = clamp(inboundDelayMs, 0, 1000);
+            
+            int mask = 0;
+            mask |= bit(PacketCategory.ATTACKS, delayAttacks);
+            mask |= bit(PacketCategory.MOVEMENT, delayMovement);
+            mask |= bit(PacketCategory.INTERACTIONS, delayInteractions);
+            mask |= bit(PacketCategory.BLOCKS, delayBlockBreaking);
+            mask |= bit(PacketCategory.ITEMS, delayItemUse);
+            mask |= bit(PacketCategory.ENTITIES, delayEntities);
+            mask |= bit(PacketCategory.KNOCKBACK, delayKnockback);
+            mask |= bit(PacketCategory.COMBAT, delayCombat);
+            mask |= bit(PacketCategory.WORLD, delayWorld);
+            mask |= bit(PacketCategory.PROBE, true);
+            mask |= bit(PacketCategory.CUSTOM, !extras.isEmpty());
+            
+            // A trace is a recorded round trip and replaces the inbound delay as well
+            boolean inbound = inboundEnabled && (traceName == null || traceName.isEmpty());
+            
+            // Round trip the TCP sender would measure, plus Linux' 200ms minimum RTO
+            int rttMs = base + (inbound ? inboundDelay : 0);
+            
+            int jitter = clamp(jitterMs, 0, 100);
+            int inboundJitter = clamp(inboundJitterMs, 0, 100);
+            boolean preserve = orderPolicy != OrderPolicy.ALLOW_REORDER;
+            long retransmit = (rttMs + 200) * 1_000_000L;
+            int coalesceWindow = clamp(coalesceWindowMs, 0, 500);
+            int coalesceSize = clamp(coalesceBytes, 1, 65535);
+            int maxPackets = clamp(queueMaxPackets, 16, 65536);
+            int maxKb = clamp(queueMaxKb, 16, 65536);
+            DelayParams outbound = new DelayParams(base, jitter, preserve, retransmit, coalesceWindow, coalesceSize, 
+                    maxPackets, maxKb * 1024L, 0, true);
+            
+            Map<PacketCategory, CategoryDelay> lanes = new EnumMap<>(PacketCategory.class);
+            if (categoryDelays != null) {
+                categoryDelays.forEach((category, delay) -> {
+                    // Unknown category names in the file come back as null
+                    if (category != null && delay != null && LANE_CATEGORIES.contains(category) && !delay.isEmpty()) {
+                        lanes.put(category, delay.clamped());
+                    }
+                });
+            }
+            boolean sharedOrder = orderPolicy == OrderPolicy.GLOBAL_ORDER;
+            List<DelayParams> categories = new ArrayList<>();
+            for (PacketCategory category : PacketCategory.values()) {
+                CategoryDelay lane = lanes.get(category);
+                if (lane == null) {
+                    categories.add(outbound);
+                    continue;
+                }
+                int laneBase = lane.delayMs() != null ? lane.delayMs() : base;
+                categories.add(new DelayParams(laneBase, lane.jitterMs() != null ? lane.jitterMs() : jitter, 
+                        preserve, (laneBase + (inbound ? inboundDelay : 0) + 200) * 1_000_000L, 
+                        // A coalesced group leaves with a single delay, so lanes with their own skip it
+                        0, coalesceSize, maxPackets, maxKb * 1024L, laneOf(category), sharedOrder));
+            }
+            
+            return new ConfigSnapshot(
+                    enabled,
+                    base,
+                    jitter,
+                    delayAttacks,
+                    delayMovement,
+                    delayInteractions,
+                    delayBlockBreaking,
+                    delayItemUse,
+                    showHud,
+                    showGraph,
+                    clamp(graphSeconds, 1, 60),
+                    releaseMode != null ? releaseMode : ReleaseMode.SCHEDULER,
+                    orderPolicy != null ? orderPolicy : OrderPolicy.PRESERVE_ORDER,
+                    drainMode != null ? drainMode : DrainMode.FLUSH,
+                    presetDrainMode != null ? presetDrainMode : DrainMode.DEADLINE,
+                    presetName,
+                    latencyModel != null ? latencyModel : LatencyModelType.UNIFORM,
+                    traceName != null ? traceName : "",
+                    Math.max(0.1, Math.min(100, traceTimeScale)),
+                    traceLoop,
+                    Math.max(0, uplinkKbps),
+                    Math.max(0, downlinkKbps),
+                    Math.max(0, Math.min(50, lossPercent)),
+                    burstyLoss,
+                    coalesceWindow,
+                    coalesceSize,
+                    maxPackets,
+                    maxKb,
+                    overflowPolicy != null ? overflowPolicy : OverflowPolicy.DROP_OLDEST_MOVEMENT,
+                    calibrateRtt,
+                    extras,
+                    Collections.unmodifiableMap(lanes),
+                    inboundEnabled,
+                    inboundDelay,
+                    inboundJitter,
+                    delayEntities,
+                    delayKnockback,
+                    delayCombat,
+                    delayWorld,
+                    mask,
+                    enabled && inbound,
+                    retransmit,
+                    outbound,
+                    // Coalescing models the client's uplink only
+                    new DelayParams(inboundDelay, inboundJitter, preserve, retransmit, 0, coalesceSize, 
+                            maxPackets, maxKb * 1024L, 0, true),
+                    List.copyOf(categories));
+        }
+        
+        private static int bit(PacketCategory category, boolean set) {
+            return set ? 1 << category.ordinal() : 0;
+        }
+        
+        private static int clamp(int value, int min, int max) {
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+}
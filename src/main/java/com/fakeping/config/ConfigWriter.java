@@ -0,0 +1,76 @@
+package com.fakeping.config;
+
+import com.fakeping.FakePingMod;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Persists the config file from a background thread.
+ * 
+ * Save requests are debounced: the first request schedules a write after a short
+ * window, and further requests in that window are folded into the same write,
+ * which serializes whatever the latest settings are by then. The file is written
+ * to a temporary file first and moved into place, so a crash mid-write can never
+ * leave a truncated config behind.
+ */
+class ConfigWriter {
+    private static final long DEBOUNCE_MS = 500;
+    
+    private final Path path;
+    private final Supplier<String> serializer;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FakePing-ConfigWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    ConfigWriter(Path path, Supplier<String> serializer) {
+        this.path = path;
+        this.serializer = serializer;
+    }
+    
+    /**
+     * Schedule a write unless one is already pending.
+     */
+    void requestSave() {
+        if (pending.compareAndSet(false, true)) {
+            executor.schedule(this::writeIfPending, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Write any pending change right now, on the calling thread (client shutdown).
+     */
+    void flush() {
+        writeIfPending();
+        executor.shutdown();
+    }
+    
+    private synchronized void writeIfPending() {
+        if (!pending.getAndSet(false)) {
+            return;
+        }
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.writeString(temp, serializer.get());
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            FakePingMod.LOGGER.error("Failed to save FakePing config", e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.fakeping.config;
+
+/**
+ * What happens to packets still queued when fake ping is turned off or its delay changes.
+ * 
+ * However long a packet was supposed to wait, a drain completes within a bounded
+ * time. Draining never drops anything; packets are only dropped when a full queue
+ * overflows (see {@link OverflowPolicy}) or their connection has closed.
+ */
+public enum DrainMode {
+    /**
+     * Send everything queued right away, in order.
+     */
+    FLUSH("flush"),
+    
+    /**
+     * Keep the deadlines the packets already have. Turning fake ping off still
+     * lets them go out at their original time.
+     */
+    DEADLINE("deadline"),
+    
+    /**
+     * Move the deadlines by the change in delay, as if the packets had been sent
+     * with the new delay. Turning fake ping off means a delay of 0, so they leave now.
+     */
+    RETIME("retime");
+    
+    private final String id;
+    
+    DrainMode(String id) {
+        this.id = id;
+    }
+    
+    /**
+     * Name used in commands.
+     */
+    public String getId() {
+        return id;
+    }
+}
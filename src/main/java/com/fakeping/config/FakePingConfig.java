@@ -1,47 +1,67 @@
 package com.fakeping.config;
 
+import com.fakeping.FakePingMod;
+import com.fakeping.network.PacketCategory;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import net.fabricmc.loader.api.FabricLoader;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Configuration management for FakePing mod.
  * Handles saving/loading settings and providing runtime configuration access.
+ * 
+ * The settings live in an immutable {@link ConfigSnapshot} published through a
+ * single volatile field, so packet threads read them without locking and always
+ * see one consistent version. Hot paths should call {@link #snapshot()} once per
+ * packet rather than using the individual getters.
+ * Saving happens on a background thread via {@link ConfigWriter}: several
+ * changes in quick succession (like /ping set) result in a single write.
  */
 public class FakePingConfig {
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    private static final Path CONFIG_PATH = FabricLoader.getInstance()
-            .getConfigDir()
-            .resolve("fakeping.json");
-    
-    // Configuration fields
-    private boolean enabled = false;
-    private int baseDelayMs = 150;
-    private int jitterMs = 20;
-    private boolean delayAttacks = true;
-    private boolean delayMovement = true;
-    private boolean delayInteractions = true;
-    private boolean delayBlockBreaking = true;
-    private boolean delayItemUse = true;
-    private boolean showHud = true;
+    private volatile ConfigSnapshot current = ConfigSnapshot.DEFAULTS;
+    private final Path configPath;
+    private final ConfigWriter writer;
+    
+    // Notified after every change
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    
+    public FakePingConfig() {
+        this(FabricLoader.getInstance().getConfigDir().resolve("fakeping.json"));
+    }
+    
+    /**
+     * Config kept in the given file instead of .minecraft/config/fakeping.json,
+     * for running without Fabric (benchmarks).
+     */
+    public FakePingConfig(Path configPath) {
+        this.configPath = configPath;
+        this.writer = new ConfigWriter(configPath, () -> GSON.toJson(current.toBuilder()));
+    }
     
     /**
      * Load configuration from file, or create default if it doesn't exist.
+     * Reads synchronously; only called once during startup.
      */
     public void load() {
-        if (Files.exists(CONFIG_PATH)) {
+        if (Files.exists(configPath)) {
             try {
-                String json = Files.readString(CONFIG_PATH);
-                FakePingConfig loaded = GSON.fromJson(json, FakePingConfig.class);
+                String json = Files.readString(configPath);
+                ConfigSnapshot.Builder loaded = GSON.fromJson(json, ConfigSnapshot.Builder.class);
                 if (loaded != null) {
-                    copyFrom(loaded);
+                    current = loaded.build();
                 }
-            } catch (IOException e) {
-                System.err.println("Failed to load FakePing config: " + e.getMessage());
+            } catch (IOException | JsonParseException e) {
+                FakePingMod.LOGGER.error("Failed to load FakePing config", e);
             }
         } else {
             save();
@@ -49,109 +69,538 @@ public class FakePingConfig {
     }
     
     /**
-     * Save current configuration to file.
+     * Request the current configuration to be saved in the background.
      */
     public void save() {
-        try {
-            Files.createDirectories(CONFIG_PATH.getParent());
-            String json = GSON.toJson(this);
-            Files.writeString(CONFIG_PATH, json);
-        } catch (IOException e) {
-            System.err.println("Failed to save FakePing config: " + e.getMessage());
-        }
+        writer.requestSave();
     }
     
-    private void copyFrom(FakePingConfig other) {
-        this.enabled = other.enabled;
-        this.baseDelayMs = other.baseDelayMs;
-        this.jitterMs = other.jitterMs;
-        this.delayAttacks = other.delayAttacks;
-        this.delayMovement = other.delayMovement;
-        this.delayInteractions = other.delayInteractions;
-        this.delayBlockBreaking = other.delayBlockBreaking;
-        this.delayItemUse = other.delayItemUse;
-        this.showHud = other.showHud;
+    /**
+     * Write any unsaved change immediately (client shutdown).
+     */
+    public void flush() {
+        writer.flush();
+    }
+    
+    /**
+     * The current settings. The returned snapshot never changes.
+     */
+    public ConfigSnapshot snapshot() {
+        return current;
+    }
+    
+    /**
+     * Register a listener that runs after any setting changed.
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+    
+    public void removeChangeListener(Runnable listener) {
+        changeListeners.remove(listener);
+    }
+    
+    /**
+     * Apply a change to a copy of the current settings and publish the result.
+     * Writers are serialized; readers only ever see complete snapshots.
+     */
+    private void update(Consumer<ConfigSnapshot.Builder> change) {
+        update(change, true);
+    }
+    
+    /**
+     * @param persist Whether to save the result; otherwise it is only written
+     *                along with the next change that is saved
+     */
+    private void update(Consumer<ConfigSnapshot.Builder> change, boolean persist) {
+        synchronized (this) {
+            ConfigSnapshot.Builder builder = current.toBuilder();
+            change.accept(builder);
+            current = builder.build();
+        }
+        
+        if (persist) {
+            save();
+        }
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
     }
     
     // Getters and setters
     public boolean isEnabled() {
-        return enabled;
+        return current.enabled();
     }
     
     public void setEnabled(boolean enabled) {
-        this.enabled = enabled;
-        save();
+        update(b -> b.enabled = enabled);
     }
     
     public int getBaseDelayMs() {
-        return baseDelayMs;
+        return current.baseDelayMs();
     }
     
     public void setBaseDelayMs(int baseDelayMs) {
-        this.baseDelayMs = Math.max(0, Math.min(1000, baseDelayMs));
-        save();
+        update(b -> b.baseDelayMs = baseDelayMs);
+    }
+    
+    /**
+     * Set the base delay and turn fake ping on, as a single change.
+     */
+    public void enableWithDelayMs(int baseDelayMs) {
+        update(b -> {
+            b.baseDelayMs = baseDelayMs;
+            b.enabled = true;
+        });
     }
     
     public int getJitterMs() {
-        return jitterMs;
+        return current.jitterMs();
     }
     
     public void setJitterMs(int jitterMs) {
-        this.jitterMs = Math.max(0, Math.min(100, jitterMs));
-        save();
+        update(b -> b.jitterMs = jitterMs);
     }
     
     public boolean shouldDelayAttacks() {
-        return delayAttacks;
+        return current.delayAttacks();
     }
     
     public void setDelayAttacks(boolean delayAttacks) {
-        this.delayAttacks = delayAttacks;
-        save();
+        update(b -> b.delayAttacks = delayAttacks);
     }
     
     public boolean shouldDelayMovement() {
-        return delayMovement;
+        return current.delayMovement();
     }
     
     public void setDelayMovement(boolean delayMovement) {
-        this.delayMovement = delayMovement;
-        save();
+        update(b -> b.delayMovement = delayMovement);
     }
     
     public boolean shouldDelayInteractions() {
-        return delayInteractions;
+        return current.delayInteractions();
     }
     
     public void setDelayInteractions(boolean delayInteractions) {
-        this.delayInteractions = delayInteractions;
-        save();
+        update(b -> b.delayInteractions = delayInteractions);
     }
     
     public boolean shouldDelayBlockBreaking() {
-        return delayBlockBreaking;
+        return current.delayBlockBreaking();
     }
     
     public void setDelayBlockBreaking(boolean delayBlockBreaking) {
-        this.delayBlockBreaking = delayBlockBreaking;
-        save();
+        update(b -> b.delayBlockBreaking = delayBlockBreaking);
     }
     
     public boolean shouldDelayItemUse() {
-        return delayItemUse;
+        return current.delayItemUse();
     }
     
     public void setDelayItemUse(boolean delayItemUse) {
-        this.delayItemUse = delayItemUse;
-        save();
+        update(b -> b.delayItemUse = delayItemUse);
     }
     
     public boolean shouldShowHud() {
-        return showHud;
+        return current.showHud();
     }
     
     public void setShowHud(boolean showHud) {
-        this.showHud = showHud;
-        save();
+        update(b -> b.showHud = showHud);
+    }
+    
+    /**
+     * Whether the HUD shows a graph of recent delays and queue depth.
+     */
+    public boolean shouldShowGraph() {
+        return current.showGraph();
+    }
+    
+    public void setShowGraph(boolean showGraph) {
+        update(b -> b.showGraph = showGraph);
+    }
+    
+    /**
+     * Time span covered by the HUD graph.
+     */
+    public int getGraphSeconds() {
+        return current.graphSeconds();
+    }
+    
+    public void setGraphSeconds(int graphSeconds) {
+        update(b -> b.graphSeconds = graphSeconds);
+    }
+    
+    /**
+     * Set the graph's time span and show it, as a single change.
+     */
+    public void showGraphSeconds(int graphSeconds) {
+        update(b -> {
+            b.graphSeconds = graphSeconds;
+            b.showGraph = true;
+        });
+    }
+    
+    public ReleaseMode getReleaseMode() {
+        return current.releaseMode();
+    }
+    
+    public void setReleaseMode(ReleaseMode releaseMode) {
+        update(b -> b.releaseMode = releaseMode);
+    }
+    
+    public OrderPolicy getOrderPolicy() {
+        return current.orderPolicy();
+    }
+    
+    public void setOrderPolicy(OrderPolicy orderPolicy) {
+        update(b -> b.orderPolicy = orderPolicy);
+    }
+    
+    /**
+     * What happens to queued packets when fake ping is disabled or its delay changes.
+     */
+    public DrainMode getDrainMode() {
+        return current.drainMode();
+    }
+    
+    public void setDrainMode(DrainMode drainMode) {
+        update(b -> b.drainMode = drainMode);
+    }
+    
+    /**
+     * Switch to a preset: its settings replace the current ones in a single swap.
+     * Nothing is written to disk, so this is cheap enough for a keybind; queued
+     * packets are handled according to {@link #getPresetDrainMode()}.
+     */
+    public void applyPreset(LatencyPreset preset) {
+        update(b -> {
+            preset.applyTo(b);
+            b.presetName = preset.getName();
+        }, false);
+    }
+    
+    /**
+     * Preset last switched to, or null.
+     */
+    public String getPresetName() {
+        return current.presetName();
+    }
+    
+    /**
+     * What happens to queued packets when switching presets.
+     */
+    public DrainMode getPresetDrainMode() {
+        return current.presetDrainMode();
+    }
+    
+    public void setPresetDrainMode(DrainMode presetDrainMode) {
+        update(b -> b.presetDrainMode = presetDrainMode);
+    }
+    
+    public LatencyModelType getLatencyModel() {
+        return current.latencyModel();
+    }
+    
+    public void setLatencyModel(LatencyModelType latencyModel) {
+        update(b -> b.latencyModel = latencyModel);
+    }
+    
+    /**
+     * Name of the recorded trace replayed for outbound delay, empty for none.
+     */
+    public String getTraceName() {
+        return current.traceName();
+    }
+    
+    public void setTraceName(String traceName) {
+        update(b -> b.traceName = traceName);
+    }
+    
+    /**
+     * Playback speed of the trace (2 = twice as fast).
+     */
+    public double getTraceTimeScale() {
+        return current.traceTimeScale();
+    }
+    
+    public void setTraceTimeScale(double traceTimeScale) {
+        update(b -> b.traceTimeScale = traceTimeScale);
+    }
+    
+    public boolean isTraceLoop() {
+        return current.traceLoop();
+    }
+    
+    public void setTraceLoop(boolean traceLoop) {
+        update(b -> b.traceLoop = traceLoop);
+    }
+    
+    /**
+     * The mod's own folder next to fakeping.json (config/fakeping). Resolved on
+     * use, so loading this class doesn't need a running Fabric loader.
+     */
+    private static Path dataDirectory() {
+        return FabricLoader.getInstance().getConfigDir().resolve("fakeping");
+    }
+    
+    /**
+     * Directory recorded traces are loaded from (config/fakeping/traces).
+     */
+    public static Path getTraceDirectory() {
+        return dataDirectory().resolve("traces");
+    }
+    
+    /**
+     * Directory latency timelines are loaded from (config/fakeping/timelines).
+     */
+    public static Path getTimelineDirectory() {
+        return dataDirectory().resolve("timelines");
+    }
+    
+    /**
+     * Directory presets are loaded from (config/fakeping/presets).
+     */
+    public static Path getPresetDirectory() {
+        return dataDirectory().resolve("presets");
+    }
+    
+    /**
+     * Directory session recordings are written to (config/fakeping/recordings).
+     */
+    public static Path getRecordingDirectory() {
+        return dataDirectory().resolve("recordings");
+    }
+    
+    /**
+     * Directory exported stats are written to (config/fakeping/exports).
+     */
+    public static Path getExportDirectory() {
+        return dataDirectory().resolve("exports");
+    }
+    
+    /**
+     * Uplink bandwidth limit in kbit/s, 0 for unlimited.
+     */
+    public int getUplinkKbps() {
+        return current.uplinkKbps();
+    }
+    
+    public void setUplinkKbps(int uplinkKbps) {
+        update(b -> b.uplinkKbps = uplinkKbps);
+    }
+    
+    /**
+     * Downlink bandwidth limit in kbit/s, 0 for unlimited.
+     */
+    public int getDownlinkKbps() {
+        return current.downlinkKbps();
+    }
+    
+    public void setDownlinkKbps(int downlinkKbps) {
+        update(b -> b.downlinkKbps = downlinkKbps);
+    }
+    
+    /**
+     * Set both bandwidth limits as a single change.
+     */
+    public void setBandwidth(int uplinkKbps, int downlinkKbps) {
+        update(b -> {
+            b.uplinkKbps = uplinkKbps;
+            b.downlinkKbps = downlinkKbps;
+        });
+    }
+    
+    /**
+     * Percentage of delayed packets that are lost and retransmitted.
+     */
+    public double getLossPercent() {
+        return current.lossPercent();
+    }
+    
+    public boolean isBurstyLoss() {
+        return current.burstyLoss();
+    }
+    
+    public void setLoss(double lossPercent, boolean burstyLoss) {
+        update(b -> {
+            b.lossPercent = lossPercent;
+            b.burstyLoss = burstyLoss;
+        });
+    }
+    
+    /**
+     * How long outbound packets are held to be sent together, 0 for no coalescing.
+     */
+    public int getCoalesceWindowMs() {
+        return current.coalesceWindowMs();
+    }
+    
+    /**
+     * Group size at which coalesced packets are sent before the window expires.
+     */
+    public int getCoalesceBytes() {
+        return current.coalesceBytes();
+    }
+    
+    public void setCoalescing(int windowMs, int bytes) {
+        update(b -> {
+            b.coalesceWindowMs = windowMs;
+            b.coalesceBytes = bytes;
+        });
+    }
+    
+    /**
+     * Most packets held per direction.
+     */
+    public int getQueueMaxPackets() {
+        return current.queueMaxPackets();
+    }
+    
+    /**
+     * Most estimated packet data held per direction, in KB.
+     */
+    public int getQueueMaxKb() {
+        return current.queueMaxKb();
+    }
+    
+    public void setQueueLimits(int maxPackets, int maxKb) {
+        update(b -> {
+            b.queueMaxPackets = maxPackets;
+            b.queueMaxKb = maxKb;
+        });
+    }
+    
+    public OverflowPolicy getOverflowPolicy() {
+        return current.overflowPolicy();
+    }
+    
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        update(b -> b.overflowPolicy = overflowPolicy);
+    }
+    
+    /**
+     * Whether the applied delay is corrected until the measured round trip matches the target.
+     */
+    public boolean isCalibrateRtt() {
+        return current.calibrateRtt();
+    }
+    
+    public void setCalibrateRtt(boolean calibrateRtt) {
+        update(b -> b.calibrateRtt = calibrateRtt);
+    }
+    
+    /**
+     * Whether packets of the given category should be delayed.
+     */
+    public boolean shouldDelay(PacketCategory category) {
+        return current.delays(category);
+    }
+    
+    /**
+     * Packet ids (e.g. "minecraft:keep_alive") delayed in addition to the built-in categories.
+     */
+    public List<String> getExtraDelayedPackets() {
+        return current.extraDelayedPackets();
+    }
+    
+    public boolean addExtraDelayedPacket(String packetId) {
+        if (getExtraDelayedPackets().contains(packetId)) {
+            return false;
+        }
+        update(b -> {
+            if (!b.extraDelayedPackets.contains(packetId)) {
+                b.extraDelayedPackets.add(packetId);
+            }
+        });
+        return true;
+    }
+    
+    public boolean removeExtraDelayedPacket(String packetId) {
+        if (!getExtraDelayedPackets().contains(packetId)) {
+            return false;
+        }
+        update(b -> b.extraDelayedPackets.remove(packetId));
+        return true;
+    }
+    
+    /**
+     * The category's own delay settings, or {@link CategoryDelay#NONE} if it uses the global ones.
+     */
+    public CategoryDelay getCategoryDelay(PacketCategory category) {
+        return current.categoryDelay(category);
+    }
+    
+    /**
+     * Change the category's own delay settings, giving it a lane of its own.
+     * 
+     * @param change Applied to the current settings; a result with nothing set
+     *               puts the category back on the global settings
+     */
+    public void updateCategoryDelay(PacketCategory category, UnaryOperator<CategoryDelay> change) {
+        if (!ConfigSnapshot.LANE_CATEGORIES.contains(category)) {
+            throw new IllegalArgumentException("Category can't have its own delay: " + category);
+        }
+        update(b -> {
+            CategoryDelay delay = change.apply(b.categoryDelays.getOrDefault(category, CategoryDelay.NONE));
+            if (delay.isEmpty()) {
+                b.categoryDelays.remove(category);
+            } else {
+                b.categoryDelays.put(category, delay);
+            }
+        });
+    }
+    
+    public boolean isInboundEnabled() {
+        return current.inboundEnabled();
+    }
+    
+    public void setInboundEnabled(boolean inboundEnabled) {
+        update(b -> b.inboundEnabled = inboundEnabled);
+    }
+    
+    public int getInboundDelayMs() {
+        return current.inboundDelayMs();
+    }
+    
+    public void setInboundDelayMs(int inboundDelayMs) {
+        update(b -> b.inboundDelayMs = inboundDelayMs);
+    }
+    
+    /**
+     * Set the inbound delay and turn the inbound stage on, as a single change.
+     */
+    public void enableInboundWithDelayMs(int inboundDelayMs) {
+        update(b -> {
+            b.inboundDelayMs = inboundDelayMs;
+            b.inboundEnabled = true;
+        });
+    }
+    
+    public int getInboundJitterMs() {
+        return current.inboundJitterMs();
+    }
+    
+    public void setInboundJitterMs(int inboundJitterMs) {
+        update(b -> b.inboundJitterMs = inboundJitterMs);
+    }
+    
+    /**
+     * Toggle one of the inbound categories.
+     */
+    public void setDelayInbound(PacketCategory category, boolean delay) {
+        if (!category.isInbound()) {
+            throw new IllegalArgumentException("Not an inbound category: " + category);
+        }
+        update(b -> {
+            switch (category) {
+                case ENTITIES -> b.delayEntities = delay;
+                case KNOCKBACK -> b.delayKnockback = delay;
+                case COMBAT -> b.delayCombat = delay;
+                case WORLD -> b.delayWorld = delay;
+                default -> { }
+            }
+        });
     }
 }
@@ -0,0 +1,32 @@
+package com.fakeping.config;
+
+/**
+ * Shape of the random delay added on top of the base delay.
+ */
+public enum LatencyModelType {
+    /** Flat ±jitter, the original behaviour. */
+    UNIFORM("uniform"),
+    /** Bell curve, jitter is about two standard deviations. */
+    NORMAL("normal"),
+    /** Skewed towards late packets with occasional long spikes. */
+    LOG_NORMAL("lognormal"),
+    /** Never early, with a heavy tail of large spikes. */
+    PARETO("pareto"),
+    /** Gilbert-Elliott: mostly calm, with bursts of heavily delayed packets. */
+    BURST("burst"),
+    /** Delay drifts slowly up and down within ±jitter. */
+    RANDOM_WALK("walk");
+    
+    private final String id;
+    
+    LatencyModelType(String id) {
+        this.id = id;
+    }
+    
+    /**
+     * Name used in commands.
+     */
+    public String getId() {
+        return id;
+    }
+}
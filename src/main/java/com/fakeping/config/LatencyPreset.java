@@ -0,0 +1,155 @@
+package com.fakeping.config;
+
+import com.fakeping.network.PacketCategory;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A named set of settings that can be switched to in one step, e.g. "lan", "eu"
+ * and "bad wifi".
+ * 
+ * A preset file holds any of the settings of fakeping.json that describe the
+ * simulated network ({@link #SETTINGS}); the rest stay as they are when it is applied:
+ * <pre>
+ * { "baseDelayMs": 180, "jitterMs": 40, "latencyModel": "LOG_NORMAL", "lossPercent": 1.5 }
+ * </pre>
+ * Switching on fake ping, calibration, the display and how queued packets are
+ * drained on a switch are left to the player.
+ * The file is parsed and every value converted once when it is loaded. Applying
+ * a preset then only assigns the prepared values to a {@link ConfigSnapshot.Builder}.
+ */
+public class LatencyPreset {
+    public static final String EXTENSION = ".json";
+    
+    /** Settings a preset may change. */
+    public static final Set<String> SETTINGS = Set.of(
+            "baseDelayMs", "jitterMs", "latencyModel", "orderPolicy", 
+            "traceName", "traceTimeScale", "traceLoop", 
+            "uplinkKbps", "downlinkKbps", "lossPercent", "burstyLoss", 
+            "coalesceWindowMs", "coalesceBytes", "queueMaxPackets", "queueMaxKb", "overflowPolicy", 
+            "categoryDelays", "delayAttacks", "delayMovement", "delayInteractions", "delayBlockBreaking", 
+            "delayItemUse", "inboundEnabled", "inboundDelayMs", "inboundJitterMs", 
+            "delayEntities", "delayKnockback", "delayCombat", "delayWorld");
+    
+    private static final Gson GSON = new Gson();
+    
+    private final String name;
+    private final Field[] fields;
+    private final Object[] values;
+    
+    private LatencyPreset(String name, Field[] fields, Object[] values) {
+        this.name = name;
+        this.fields = fields;
+        this.values = values;
+    }
+    
+    /**
+     * Load a preset file; its name is the file name without extension.
+     * 
+     * @throws IOException If the file can't be read or holds something that isn't a setting
+     */
+    public static LatencyPreset load(Path path) throws IOException {
+        String fileName = path.getFileName().toString();
+        String name = fileName.substring(0, fileName.length() - EXTENSION.length());
+        try (Reader reader = Files.newBufferedReader(path)) {
+            return parse(name, JsonParser.parseReader(reader));
+        } catch (JsonParseException | IllegalStateException | ClassCastException | NumberFormatException e) {
+            throw new IOException("Invalid preset " + name + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Compile a parsed preset.
+     * 
+     * @throws IOException If a key isn't a setting a preset may change, or a value
+     *                     doesn't fit it
+     */
+    static LatencyPreset parse(String name, JsonElement json) throws IOException {
+        JsonObject object = json.getAsJsonObject();
+        List<Field> fields = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            String key = entry.getKey();
+            if (!SETTINGS.contains(key)) {
+                throw new IOException("Preset " + name + ": " + key + " can't be set by a preset");
+            }
+            Field field;
+            try {
+                field = ConfigSnapshot.Builder.class.getField(key);
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Preset setting " + key + " isn't a config setting", e);
+            }
+            // Gson turns an unknown enum constant into null rather than failing
+            Object value = GSON.fromJson(entry.getValue(), field.getGenericType());
+            if (value == null) {
+                throw new IOException("Preset " + name + ": invalid value for " + key);
+            }
+            if (value instanceof Map<?, ?> categoryDelays) {
+                checkCategoryDelays(name, entry.getValue().getAsJsonObject(), categoryDelays);
+            }
+            fields.add(field);
+            values.add(value);
+        }
+        return new LatencyPreset(name, fields.toArray(new Field[0]), values.toArray());
+    }
+    
+    /**
+     * Reject categories and models in categoryDelays that Gson turned into null, and
+     * categories that can't have delay settings of their own.
+     */
+    private static void checkCategoryDelays(String name, JsonObject json, Map<?, ?> categoryDelays) throws IOException {
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            PacketCategory category = GSON.fromJson(new JsonPrimitive(entry.getKey()), PacketCategory.class);
+            if (category == null || !ConfigSnapshot.LANE_CATEGORIES.contains(category)) {
+                throw new IOException("Preset " + name + ": unknown category " + entry.getKey() + " in categoryDelays");
+            }
+            if (!(categoryDelays.get(category) instanceof CategoryDelay delay)) {
+                throw new IOException("Preset " + name + ": invalid value for categoryDelays." + entry.getKey());
+            }
+            JsonElement model = entry.getValue().getAsJsonObject().get("model");
+            if (model != null && !model.isJsonNull() && delay.model() == null) {
+                throw new IOException("Preset " + name + ": invalid model for categoryDelays." + entry.getKey());
+            }
+        }
+    }
+    
+    /**
+     * Set the preset's values on a builder. Lists and maps are shared with the
+     * preset, which is fine since {@link ConfigSnapshot.Builder#build} copies them.
+     */
+    void applyTo(ConfigSnapshot.Builder builder) {
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i].set(builder, values[i]);
+            }
+        } catch (IllegalAccessException e) {
+            // Builder fields are public
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Number of settings the preset changes.
+     */
+    public int size() {
+        return fields.length;
+    }
+}
@@ -0,0 +1,39 @@
+package com.fakeping.config;
+
+/**
+ * Whether jitter is allowed to reorder delayed packets.
+ */
+public enum OrderPolicy {
+    /**
+     * Packets leave in the order they were sent, like a TCP stream.
+     * A packet's deadline is clamped to be no earlier than the previous one.
+     * Categories with their own delay each keep their order separately, so a
+     * slow category doesn't hold up the others.
+     */
+    PRESERVE_ORDER("preserve"),
+    
+    /**
+     * Like {@link #PRESERVE_ORDER}, but all categories share one order, even
+     * those with their own delay: nothing overtakes a packet sent before it.
+     */
+    GLOBAL_ORDER("global"),
+    
+    /**
+     * Every packet leaves at its own deadline, so a packet with less jitter can
+     * overtake an earlier one, like datagrams on a UDP link.
+     */
+    ALLOW_REORDER("reorder");
+    
+    private final String id;
+    
+    OrderPolicy(String id) {
+        this.id = id;
+    }
+    
+    /**
+     * Name used in commands.
+     */
+    public String getId() {
+        return id;
+    }
+}
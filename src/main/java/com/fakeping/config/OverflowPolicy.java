@@ -0,0 +1,42 @@
+package com.fakeping.config;
+
+/**
+ * What happens to a packet that arrives while its delay queue is full.
+ * 
+ * The queue is capped by packet count and estimated bytes, so long delays with
+ * heavy traffic can't grow it without limit. Every overflow is counted in the
+ * metrics whichever policy is chosen. A dropped packet never reaches the other
+ * side; its send callbacks fail as if the write had failed.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the new packet, like a router doing tail-drop. The server never sees it.
+     */
+    DROP_NEWEST("drop"),
+    
+    /**
+     * Make room by dropping the oldest queued movement packet; a later position
+     * update supersedes it anyway. If no movement packet is queued, the new packet
+     * is dropped.
+     */
+    DROP_OLDEST_MOVEMENT("drop-movement"),
+    
+    /**
+     * Send the new packet without delay. It overtakes everything still queued, so
+     * this breaks the order of the stream even when order is preserved.
+     */
+    BYPASS("bypass");
+    
+    private final String id;
+    
+    OverflowPolicy(String id) {
+        this.id = id;
+    }
+    
+    /**
+     * Name used in commands.
+     */
+    public String getId() {
+        return id;
+    }
+}
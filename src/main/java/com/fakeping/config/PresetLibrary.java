@@ -0,0 +1,90 @@
+package com.fakeping.config;
+
+import com.fakeping.FakePingMod;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The presets in config/fakeping/presets, loaded into memory once.
+ * 
+ * Switching presets (by keybind or command) never touches the disk; only
+ * {@link #load()} reads the directory again. Broken preset files are logged and
+ * skipped so one typo doesn't take the others with it.
+ */
+public class PresetLibrary {
+    private final Path directory;
+    private volatile List<LatencyPreset> presets = List.of();
+    // Position for cycling, client thread only
+    private int index = -1;
+    
+    public PresetLibrary(Path directory) {
+        this.directory = directory;
+    }
+    
+    /**
+     * (Re)load all presets from the directory, sorted by name.
+     * 
+     * @return Number of presets loaded
+     */
+    public int load() {
+        List<LatencyPreset> loaded = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path path : files.filter(file -> file.getFileName().toString().endsWith(LatencyPreset.EXTENSION))
+                        .sorted(Comparator.comparing(Path::getFileName))
+                        .toList()) {
+                    try {
+                        loaded.add(LatencyPreset.load(path));
+                    } catch (IOException e) {
+                        FakePingMod.LOGGER.warn("Skipping preset {}: {}", path.getFileName(), e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                FakePingMod.LOGGER.error("Failed to list presets in {}", directory, e);
+            }
+        }
+        presets = List.copyOf(loaded);
+        index = -1;
+        return loaded.size();
+    }
+    
+    public List<LatencyPreset> getPresets() {
+        return presets;
+    }
+    
+    /**
+     * The preset with the given name, or null.
+     */
+    public LatencyPreset find(String name) {
+        List<LatencyPreset> current = presets;
+        for (int i = 0; i < current.size(); i++) {
+            if (current.get(i).getName().equals(name)) {
+                index = i;
+                return current.get(i);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The next (or previous) preset after the one last switched to, wrapping around.
+     * 
+     * @param step 1 for the next preset, -1 for the previous one
+     * @return The preset, or null if there are none
+     */
+    public LatencyPreset cycle(int step) {
+        List<LatencyPreset> current = presets;
+        if (current.isEmpty()) {
+            return null;
+        }
+        index = index < 0 && step < 0 ? current.size() - 1
+                : Math.floorMod(index + step, current.size());
+        return current.get(index);
+    }
+}
@@ -0,0 +1,31 @@
+package com.fakeping.config;
+
+/**
+ * How delayed packets are released once their scheduled time arrives.
+ */
+public enum ReleaseMode {
+    /**
+     * A dedicated release thread wakes up at each packet's deadline.
+     * Packets leave within about a millisecond of their scheduled time.
+     */
+    SCHEDULER("scheduler"),
+    
+    /**
+     * Packets are released from the client tick. Delays are quantized to the
+     * 50ms tick length; kept as a fallback for troubleshooting.
+     */
+    TICK("tick");
+    
+    private final String id;
+    
+    ReleaseMode(String id) {
+        this.id = id;
+    }
+    
+    /**
+     * Name used in commands.
+     */
+    public String getId() {
+        return id;
+    }
+}
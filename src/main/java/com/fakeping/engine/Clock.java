@@ -0,0 +1,14 @@
+package com.fakeping.engine;
+
+/**
+ * Time source of a {@link DelayPipeline}, in nanoseconds like System.nanoTime().
+ * 
+ * The game uses {@link #SYSTEM}; simulations use a {@link ManualClock} so a run
+ * doesn't depend on how fast the machine is.
+ */
+@FunctionalInterface
+public interface Clock {
+    Clock SYSTEM = System::nanoTime;
+    
+    long nanoTime();
+}
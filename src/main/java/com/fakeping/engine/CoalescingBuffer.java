@@ -0,0 +1,70 @@
+package com.fakeping.engine;
+
+import java.util.Arrays;
+
+/**
+ * Entries held back to be sent together, like a TCP sender running Nagle's
+ * algorithm against a receiver with delayed ACKs.
+ * 
+ * The first entry opens a group; the group closes once it holds enough bytes
+ * for a full segment or its window expires, and then all of its entries get one
+ * shared deadline. The array is allocated once and reused for every group.
+ * Callers synchronize on the buffer.
+ */
+class CoalescingBuffer<E extends DelayEntry> {
+    private static final int INITIAL_CAPACITY = 32;
+    
+    private DelayEntry[] entries = new DelayEntry[INITIAL_CAPACITY];
+    private int count;
+    private int bytes;
+    // Read without the lock to decide how long to sleep
+    private volatile long closeTime = DelayPipeline.IDLE;
+    
+    boolean isEmpty() {
+        return count == 0;
+    }
+    
+    /**
+     * Add an entry, opening a new group with the given close time if none is open.
+     */
+    void add(E entry, int entryBytes, long openCloseTime) {
+        if (count == 0) {
+            closeTime = openCloseTime;
+        }
+        if (count == entries.length) {
+            entries = Arrays.copyOf(entries, count * 2);
+        }
+        entries[count++] = entry;
+        bytes += entryBytes;
+    }
+    
+    int count() {
+        return count;
+    }
+    
+    int bytes() {
+        return bytes;
+    }
+    
+    @SuppressWarnings("unchecked")
+    E get(int index) {
+        return (E) entries[index];
+    }
+    
+    /**
+     * When the open group's window expires, or {@link DelayPipeline#IDLE} if there is none.
+     */
+    long closeTime() {
+        return closeTime;
+    }
+    
+    /**
+     * Forget the current group after its entries were queued.
+     */
+    void clear() {
+        Arrays.fill(entries, 0, count, null);
+        count = 0;
+        bytes = 0;
+        closeTime = DelayPipeline.IDLE;
+    }
+}
@@ -0,0 +1,299 @@
+package com.fakeping.engine;
+
+import java.util.Arrays;
+
+/**
+ * Deadline-ordered queue of delayed entries.
+ * 
+ * Backed by an array binary min-heap keyed on the send time, so both insert and
+ * release are O(log n) no matter how much jitter is applied. Entries with equal
+ * deadlines are ordered by a sequence number and therefore leave in send order.
+ * 
+ * With send order preserved, each deadline is clamped to be no earlier than the
+ * latest one already handed out, which is what a TCP stream does under jitter.
+ * 
+ * A lost entry is retransmitted after a timeout and stalls the stream: it gets
+ * its deadline pushed back by the retransmission timeout, and every entry queued
+ * after it is clamped to leave no earlier than the retransmission. This is O(1)
+ * per entry; nothing already in the heap needs to be touched.
+ * 
+ * Both kinds of clamping are tracked per lane, so each lane is an ordered stream
+ * of its own and a slow lane never holds up a fast one. All lanes share the one
+ * heap, which releases them merged by deadline.
+ * 
+ * {@link #retime} moves all queued deadlines at once (draining when the link is
+ * turned off or its delay changes) and rebuilds the heap in O(n).
+ * 
+ * Entries marked evictable are also kept in a FIFO ring in the order they were
+ * queued, so {@link #evictOldest} finds the oldest one without scanning the heap.
+ * Entries that left the heap normally are skipped lazily. The heap and the ring
+ * only grow when the pipeline's capacity allows more entries, so their size is
+ * bounded by the configured limit.
+ */
+class DeadlineQueue<E extends DelayEntry> {
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private DelayEntry[] heap = new DelayEntry[INITIAL_CAPACITY];
+    private int size;
+    private long nextSequence;
+    // Per lane: latest deadline handed out, and until when a lost entry stalls it
+    private final long[] lastDeadline;
+    private final long[] stallUntil;
+    // Evictable entries in queue order, with the sequence they were queued under
+    private DelayEntry[] evictRing = new DelayEntry[INITIAL_CAPACITY];
+    private long[] evictSequences = new long[INITIAL_CAPACITY];
+    private int evictHead;
+    private int evictCount;
+    
+    DeadlineQueue() {
+        this(1);
+    }
+    
+    /**
+     * @param lanes Number of independently ordered lanes
+     */
+    DeadlineQueue(int lanes) {
+        lastDeadline = new long[lanes];
+        stallUntil = new long[lanes];
+        Arrays.fill(lastDeadline, Long.MIN_VALUE);
+        Arrays.fill(stallUntil, Long.MIN_VALUE);
+    }
+    
+    /**
+     * Insert an entry.
+     * 
+     * @param entry The entry to insert
+     * @param deadline Requested send time (pipeline clock)
+     * @param lane Lane whose order and stalls apply
+     * @param preserveOrder Clamp the deadline so the entry can't overtake earlier ones
+     * @param retransmitNanos Retransmission timeout if the entry was lost, 0 otherwise
+     * @return The deadline actually assigned
+     */
+    synchronized long offer(E entry, long deadline, int lane, boolean preserveOrder, long retransmitNanos) {
+        // The retransmission timer runs from the entry's own send time; losses that
+        // happen during an earlier stall overlap with it instead of stacking up
+        long retransmitAt = deadline + retransmitNanos;
+        // Nothing overtakes a lost entry that is still waiting for its retransmission
+        if (deadline < stallUntil[lane]) {
+            deadline = stallUntil[lane];
+        }
+        if (preserveOrder && deadline < lastDeadline[lane]) {
+            deadline = lastDeadline[lane];
+        }
+        if (retransmitNanos > 0) {
+            deadline = Math.max(deadline, retransmitAt);
+            stallUntil[lane] = Math.max(stallUntil[lane], deadline);
+        }
+        lastDeadline[lane] = Math.max(lastDeadline[lane], deadline);
+        
+        entry.sendTime = deadline;
+        entry.sequence = nextSequence++;
+        
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        siftUp(size++, entry);
+        if (entry.evictable) {
+            addEvictable(entry);
+        }
+        return deadline;
+    }
+    
+    /**
+     * Remove and return the earliest entry if its deadline has passed.
+     * 
+     * @param now Current time
+     * @return The entry, or null if nothing is due
+     */
+    @SuppressWarnings("unchecked")
+    synchronized E pollDue(long now) {
+        if (size == 0 || heap[0].sendTime > now) {
+            return null;
+        }
+        E head = (E) heap[0];
+        removeAt(0);
+        return head;
+    }
+    
+    /**
+     * Remove and return the evictable entry that was queued first.
+     * 
+     * @return The entry, or null if no evictable entry is queued
+     */
+    @SuppressWarnings("unchecked")
+    synchronized E evictOldest() {
+        while (evictCount > 0) {
+            DelayEntry entry = evictRing[evictHead];
+            long sequence = evictSequences[evictHead];
+            evictRing[evictHead] = null;
+            evictHead = (evictHead + 1) % evictRing.length;
+            evictCount--;
+            if (isQueued(entry, sequence)) {
+                removeAt(entry.heapIndex);
+                return (E) entry;
+            }
+        }
+        return null;
+    }
+    
+    private void addEvictable(DelayEntry entry) {
+        // Drop entries from the front that already left, so the ring stays close to
+        // the number of evictable entries actually queued
+        while (evictCount > 0 && !isQueued(evictRing[evictHead], evictSequences[evictHead])) {
+            evictRing[evictHead] = null;
+            evictHead = (evictHead + 1) % evictRing.length;
+            evictCount--;
+        }
+        if (evictCount == evictRing.length) {
+            compactEvictable();
+        }
+        int tail = (evictHead + evictCount) % evictRing.length;
+        evictRing[tail] = entry;
+        evictSequences[tail] = entry.sequence;
+        evictCount++;
+    }
+    
+    /**
+     * Squeeze out entries that left the heap, keeping the order of the rest, and
+     * grow the ring if it is still full. It never needs more room than the heap.
+     */
+    private void compactEvictable() {
+        int length = evictRing.length;
+        int live = 0;
+        for (int i = 0; i < evictCount; i++) {
+            int index = (evictHead + i) % length;
+            if (isQueued(evictRing[index], evictSequences[index])) {
+                // Shifting forward within the old layout is safe: live <= i
+                int target = (evictHead + live) % length;
+                evictRing[target] = evictRing[index];
+                evictSequences[target] = evictSequences[index];
+                live++;
+            }
+        }
+        for (int i = live; i < evictCount; i++) {
+            evictRing[(evictHead + i) % length] = null;
+        }
+        evictCount = live;
+        
+        if (evictCount == length) {
+            DelayEntry[] ring = new DelayEntry[length * 2];
+            long[] sequences = new long[length * 2];
+            for (int i = 0; i < evictCount; i++) {
+                ring[i] = evictRing[(evictHead + i) % length];
+                sequences[i] = evictSequences[(evictHead + i) % length];
+            }
+            evictRing = ring;
+            evictSequences = sequences;
+            evictHead = 0;
+        }
+    }
+    
+    /**
+     * Whether the entry is still in the heap under the given sequence, rather than
+     * released and possibly reused for something else since.
+     */
+    private static boolean isQueued(DelayEntry entry, long sequence) {
+        return entry.heapIndex >= 0 && entry.sequence == sequence;
+    }
+    
+    private void removeAt(int index) {
+        DelayEntry removed = heap[index];
+        removed.heapIndex = -1;
+        DelayEntry last = heap[--size];
+        heap[size] = null;
+        if (index < size) {
+            siftDown(index, last);
+            if (heap[index] == last) {
+                siftUp(index, last);
+            }
+        }
+    }
+    
+    /**
+     * Move every queued deadline by the same amount and clamp it to [now, horizon].
+     * 
+     * The mapping never swaps two deadlines, so send order is kept. Entries that
+     * end up with the same deadline leave in send order.
+     * 
+     * @param now Current time, the earliest a deadline can become
+     * @param shiftNanos Added to every deadline; {@link Long#MIN_VALUE} makes everything due now
+     * @param horizon Latest deadline allowed
+     */
+    synchronized void retime(long now, long shiftNanos, long horizon) {
+        for (int i = 0; i < size; i++) {
+            heap[i].sendTime = retime(heap[i].sendTime, now, shiftNanos, horizon);
+        }
+        for (int lane = 0; lane < lastDeadline.length; lane++) {
+            if (lastDeadline[lane] != Long.MIN_VALUE) {
+                lastDeadline[lane] = retime(lastDeadline[lane], now, shiftNanos, horizon);
+            }
+            if (stallUntil[lane] != Long.MIN_VALUE) {
+                stallUntil[lane] = retime(stallUntil[lane], now, shiftNanos, horizon);
+            }
+        }
+        
+        // Deadlines that collapsed into one are now ordered by sequence, which can
+        // differ from the old heap order, so rebuild it bottom-up
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, heap[i]);
+        }
+    }
+    
+    private static long retime(long deadline, long now, long shiftNanos, long horizon) {
+        if (shiftNanos == Long.MIN_VALUE) {
+            return now;
+        }
+        return Math.max(now, Math.min(horizon, deadline + shiftNanos));
+    }
+    
+    /**
+     * Deadline of the earliest entry, or {@link DelayPipeline#IDLE} if empty.
+     */
+    synchronized long peekDeadline() {
+        return size > 0 ? heap[0].sendTime : DelayPipeline.IDLE;
+    }
+    
+    synchronized int size() {
+        return size;
+    }
+    
+    private void siftUp(int index, DelayEntry entry) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(entry, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].heapIndex = index;
+            index = parent;
+        }
+        heap[index] = entry;
+        entry.heapIndex = index;
+    }
+    
+    private void siftDown(int index, DelayEntry entry) {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && before(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!before(heap[child], entry)) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].heapIndex = index;
+            index = child;
+        }
+        heap[index] = entry;
+        entry.heapIndex = index;
+    }
+    
+    private static boolean before(DelayEntry a, DelayEntry b) {
+        if (a.sendTime != b.sendTime) {
+            return a.sendTime < b.sendTime;
+        }
+        return a.sequence < b.sequence;
+    }
+}
@@ -0,0 +1,40 @@
+package com.fakeping.engine;
+
+/**
+ * Something travelling through a {@link DelayPipeline}.
+ * 
+ * Subclasses add the payload (a packet, or just a counter in a simulation); the
+ * pipeline fills in the timing. Entries are meant to be pooled and reused, so the
+ * pipeline never allocates per entry.
+ */
+public class DelayEntry {
+    long queuedAt;
+    long sendTime;
+    long sequence;
+    int bytes;
+    // Position in the DeadlineQueue heap, -1 while not queued there
+    int heapIndex = -1;
+    boolean evictable;
+    
+    /**
+     * When the entry was offered to the pipeline.
+     */
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+    
+    /**
+     * Deadline the pipeline assigned, after ordering, loss and draining.
+     */
+    public long getSendTime() {
+        return sendTime;
+    }
+    
+    /**
+     * Mark the entry as one the pipeline may throw away to make room when it is
+     * full (see {@link DelayPipeline#evictOldest}). Set before offering it.
+     */
+    public void setEvictable(boolean evictable) {
+        this.evictable = evictable;
+    }
+}
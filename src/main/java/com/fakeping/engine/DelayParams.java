@@ -0,0 +1,30 @@
+package com.fakeping.engine;
+
+/**
+ * Settings of one direction of the link, as used by {@link DelayPipeline#offer}.
+ * 
+ * @param baseMs Base delay
+ * @param jitterMs Scale of the random part of the delay
+ * @param preserveOrder Whether entries keep their order (TCP) or may overtake each other
+ * @param retransmitNanos Retransmission timeout added to a lost entry
+ * @param coalesceWindowMs How long entries are held to leave as one group, 0 for off
+ * @param coalesceBytes Group size at which it leaves before the window expires
+ * @param maxEntries Most entries held at once, 0 for no limit
+ * @param maxBytes Most bytes held at once, 0 for no limit
+ * @param lane Lane the entries go into: 0 for the default one, or a lane with its
+ *             own latency model (see {@link DelayPipeline#setLaneModel})
+ * @param sharedOrder Whether the lane keeps its order together with all other lanes
+ *                    rather than on its own
+ */
+public record DelayParams(
+        int baseMs,
+        int jitterMs,
+        boolean preserveOrder,
+        long retransmitNanos,
+        int coalesceWindowMs,
+        int coalesceBytes,
+        int maxEntries,
+        long maxBytes,
+        int lane,
+        boolean sharedOrder) {
+}
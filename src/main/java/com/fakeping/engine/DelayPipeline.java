@@ -0,0 +1,343 @@
+package com.fakeping.engine;
+
+import com.fakeping.latency.LatencyModel;
+import com.fakeping.latency.LossModel;
+import com.fakeping.latency.TokenBucket;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * One direction of a simulated link: decides when each entry comes out.
+ * 
+ * An offered entry optionally waits in a coalescing group, then gets a delay
+ * from the {@link LatencyModel}, waits for the bandwidth limit ({@link TokenBucket}),
+ * may be lost and retransmitted ({@link LossModel}), and is ordered in a
+ * {@link DeadlineQueue}. Whoever owns the pipeline polls due entries and does
+ * the actual sending.
+ * 
+ * Nothing in here knows about Minecraft. Time comes from a {@link Clock} and
+ * randomness from an optional seeded generator, so the same pipeline runs in the
+ * game (system clock, ThreadLocalRandom) and in simulations (manual clock, fixed
+ * seed, fully reproducible). A seeded generator must only be used from one thread.
+ * 
+ * Entries can be split into lanes (see {@link DelayParams#lane}). Each lane may
+ * have its own latency model and keeps its own order, so entries of a slow lane
+ * don't hold up a fast one; release merges all lanes by deadline. A lane that
+ * shares its order with the others behaves like the default lane with other
+ * delay settings.
+ * 
+ * The pipeline can be bounded by entry count and bytes. When it is full,
+ * {@link #offer} rejects the entry and leaves it to the owner to drop it, send
+ * it right away, or make room with {@link #evictOldest}.
+ * 
+ * @param <E> Entry type, usually a pooled slot holding the payload
+ */
+public class DelayPipeline<E extends DelayEntry> {
+    /** Deadline value meaning "nothing to wait for". */
+    public static final long IDLE = Long.MAX_VALUE;
+    /** Shift for {@link #drain} that makes everything due immediately. */
+    public static final long SEND_NOW = Long.MIN_VALUE;
+    /** Returned by {@link #offer} when the pipeline is full. */
+    public static final long REJECTED = Long.MIN_VALUE;
+    
+    private final Clock clock;
+    private final RandomGenerator random;
+    private final Listener<? super E> listener;
+    private final DeadlineQueue<E> queue;
+    private final CoalescingBuffer<E> coalescer = new CoalescingBuffer<>();
+    private final TokenBucket link = new TokenBucket();
+    private final LossModel loss = new LossModel();
+    private volatile LatencyModel model;
+    // Copied on write; null entries use the default model
+    private volatile LatencyModel[] laneModels;
+    // Copied on write, per lane
+    private volatile int[] laneOffsetsMs;
+    // Entries and bytes held, in the queue or the coalescing group
+    private final Object capacityLock = new Object();
+    private int heldEntries;
+    private long heldBytes;
+    
+    /**
+     * @param clock Time source
+     * @param random Seeded generator for reproducible runs, or null to use ThreadLocalRandom
+     * @param model Initial latency model
+     * @param listener Told about every entry once it has its deadline
+     */
+    public DelayPipeline(Clock clock, RandomGenerator random, LatencyModel model, Listener<? super E> listener) {
+        this(clock, random, model, listener, 1);
+    }
+    
+    /**
+     * @param clock Time source
+     * @param random Seeded generator for reproducible runs, or null to use ThreadLocalRandom
+     * @param model Initial latency model of the default lane and lanes without their own
+     * @param listener Told about every entry once it has its deadline
+     * @param lanes Number of lanes, including the default lane 0
+     */
+    public DelayPipeline(Clock clock, RandomGenerator random, LatencyModel model, Listener<? super E> listener, 
+                         int lanes) {
+        this.clock = clock;
+        this.random = random;
+        this.model = model;
+        this.listener = listener;
+        this.queue = new DeadlineQueue<>(lanes);
+        this.laneModels = new LatencyModel[lanes];
+        this.laneOffsetsMs = new int[lanes];
+    }
+    
+    /**
+     * Called for each entry when it gets its deadline.
+     */
+    @FunctionalInterface
+    public interface Listener<E> {
+        /**
+         * @param entry The entry, not yet visible to {@link #pollDue}
+         * @param targetNanos Delay it was meant to get, before ordering and loss
+         */
+        void onScheduled(E entry, long targetNanos);
+    }
+    
+    /**
+     * Add an entry.
+     * 
+     * @param entry The entry
+     * @param bytes Its size on the wire, for bandwidth and coalescing
+     * @param params Current settings of this direction
+     * @return When the pipeline next needs attention because of this entry: its
+     *         deadline, or the close time of the coalescing group it joined; or
+     *         {@link #REJECTED} if the pipeline is full and the entry wasn't taken
+     */
+    public long offer(E entry, int bytes, DelayParams params) {
+        if (!reserve(bytes, params)) {
+            return REJECTED;
+        }
+        long now = clock.nanoTime();
+        entry.queuedAt = now;
+        entry.bytes = bytes;
+        
+        if (params.coalesceWindowMs() > 0) {
+            synchronized (coalescer) {
+                coalescer.add(entry, bytes, now + params.coalesceWindowMs() * 1_000_000L);
+                if (coalescer.bytes() >= params.coalesceBytes()) {
+                    return closeGroup(params, now);
+                }
+                return coalescer.closeTime();
+            }
+        }
+        
+        RandomGenerator rng = random();
+        int delay = sampleDelayMs(params, rng, now);
+        long deadline = now + delay * 1_000_000L;
+        if (link.isLimited()) {
+            // Waiting for the link comes on top of the propagation delay. Rounding up to
+            // the next millisecond lets a burst leave together in one release pass.
+            deadline = ceilToMillisecond(deadline + link.reserve(bytes, now));
+        }
+        long retransmit = loss.sample(rng) ? params.retransmitNanos() : 0;
+        
+        listener.onScheduled(entry, deadline - now);
+        return queue.offer(entry, deadline, orderLane(params), params.preserveOrder(), retransmit);
+    }
+    
+    /**
+     * Queue the entries of the coalescing group with one shared deadline: a single
+     * delay sample, bandwidth for the whole segment and one loss decision.
+     * Caller holds the coalescer lock.
+     * 
+     * @return Earliest deadline handed out, or {@link #IDLE} if the group was empty
+     */
+    private long closeGroup(DelayParams params, long now) {
+        int count = coalescer.count();
+        if (count == 0) {
+            return IDLE;
+        }
+        
+        RandomGenerator rng = random();
+        int delay = sampleDelayMs(params, rng, now);
+        long deadline = now + delay * 1_000_000L;
+        if (link.isLimited()) {
+            deadline = ceilToMillisecond(deadline + link.reserve(coalescer.bytes(), now));
+        }
+        long retransmit = loss.sample(rng) ? params.retransmitNanos() : 0;
+        
+        // The first entry carries the retransmission; the stall it sets holds the rest with it
+        long first = IDLE;
+        for (int i = 0; i < count; i++) {
+            E entry = coalescer.get(i);
+            listener.onScheduled(entry, deadline - entry.queuedAt);
+            first = Math.min(first, queue.offer(entry, deadline, orderLane(params), params.preserveOrder(), 
+                    i == 0 ? retransmit : 0));
+        }
+        coalescer.clear();
+        return first;
+    }
+    
+    /**
+     * Close the coalescing group if its window has expired.
+     * 
+     * @param now Current time of this pipeline's clock
+     */
+    public void closeGroupIfDue(long now, DelayParams params) {
+        if (coalescer.closeTime() > now) {
+            return;
+        }
+        synchronized (coalescer) {
+            if (coalescer.closeTime() <= now) {
+                closeGroup(params, now);
+            }
+        }
+    }
+    
+    /**
+     * Remove and return the earliest entry if its deadline has passed, in deadline order.
+     */
+    public E pollDue(long now) {
+        E entry = queue.pollDue(now);
+        if (entry != null) {
+            release(entry);
+        }
+        return entry;
+    }
+    
+    /**
+     * Remove and return the evictable entry (see {@link DelayEntry#setEvictable})
+     * that was queued first, freeing its room. Entries still in an open coalescing
+     * group are not considered.
+     * 
+     * @return The entry, or null if no evictable entry is queued
+     */
+    public E evictOldest() {
+        E entry = queue.evictOldest();
+        if (entry != null) {
+            release(entry);
+        }
+        return entry;
+    }
+    
+    private boolean reserve(int bytes, DelayParams params) {
+        synchronized (capacityLock) {
+            if ((params.maxEntries() > 0 && heldEntries >= params.maxEntries()) 
+                    || (params.maxBytes() > 0 && heldBytes + bytes > params.maxBytes())) {
+                return false;
+            }
+            heldEntries++;
+            heldBytes += bytes;
+            return true;
+        }
+    }
+    
+    private void release(E entry) {
+        synchronized (capacityLock) {
+            heldEntries--;
+            heldBytes -= entry.bytes;
+        }
+    }
+    
+    /**
+     * Earliest deadline or coalescing group close time, or {@link #IDLE} if empty.
+     */
+    public long nextDeadline() {
+        return Math.min(queue.peekDeadline(), coalescer.closeTime());
+    }
+    
+    /**
+     * Re-time everything still queued, e.g. when the link is turned off or its delay
+     * changes. An open coalescing group is closed first.
+     * 
+     * @param shiftNanos Added to every deadline, or {@link #SEND_NOW}
+     * @param maxNanos No deadline ends up later than this from now
+     */
+    public void drain(long shiftNanos, long maxNanos, DelayParams params) {
+        long now = clock.nanoTime();
+        synchronized (coalescer) {
+            closeGroup(params, now);
+        }
+        queue.retime(now, shiftNanos, now + maxNanos);
+    }
+    
+    public int size() {
+        return queue.size();
+    }
+    
+    /**
+     * Bytes held in the queue and the coalescing group.
+     */
+    public long heldBytes() {
+        synchronized (capacityLock) {
+            return heldBytes;
+        }
+    }
+    
+    public Clock getClock() {
+        return clock;
+    }
+    
+    /**
+     * Set the model of the default lane, also used by lanes without their own.
+     */
+    public void setLatencyModel(LatencyModel model) {
+        this.model = model;
+    }
+    
+    /**
+     * Give a lane its own latency model.
+     * 
+     * @param lane Lane index, not 0
+     * @param model Its model, or null to use the default lane's
+     */
+    public void setLaneModel(int lane, LatencyModel model) {
+        LatencyModel[] models = laneModels.clone();
+        models[lane] = model;
+        laneModels = models;
+    }
+    
+    /**
+     * Correction added to every delay sampled for a lane, e.g. to make up for
+     * overhead outside the pipeline. Delays never go below 0.
+     * 
+     * @param lane Lane index, 0 for the default lane
+     */
+    public void setOffsetMs(int lane, int offsetMs) {
+        int[] offsets = laneOffsetsMs.clone();
+        offsets[lane] = offsetMs;
+        laneOffsetsMs = offsets;
+    }
+    
+    private int sampleDelayMs(DelayParams params, RandomGenerator rng, long now) {
+        LatencyModel laneModel = params.lane() > 0 ? laneModels[params.lane()] : null;
+        LatencyModel sampler = laneModel != null ? laneModel : model;
+        return Math.max(0, sampler.sampleDelayMs(params.baseMs(), params.jitterMs(), rng, now) 
+                + laneOffsetsMs[params.lane()]);
+    }
+    
+    /**
+     * Lane whose order an entry joins: its own, or the default one for shared order.
+     */
+    private static int orderLane(DelayParams params) {
+        return params.sharedOrder() ? 0 : params.lane();
+    }
+    
+    /**
+     * @param kbps Link rate in kbit/s, 0 for unlimited
+     */
+    public void setBandwidth(int kbps) {
+        link.setRate(kbps);
+    }
+    
+    /**
+     * @param rate Long-run fraction of entries lost
+     * @param bursty Whether losses cluster together
+     */
+    public void setLoss(double rate, boolean bursty) {
+        loss.configure(rate, bursty);
+    }
+    
+    private RandomGenerator random() {
+        return random != null ? random : ThreadLocalRandom.current();
+    }
+    
+    private static long ceilToMillisecond(long nanos) {
+        return -Math.floorDiv(-nanos, 1_000_000L) * 1_000_000L;
+    }
+}
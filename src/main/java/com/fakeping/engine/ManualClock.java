@@ -0,0 +1,25 @@
+package com.fakeping.engine;
+
+/**
+ * Virtual clock that only moves when told to.
+ */
+public class ManualClock implements Clock {
+    private volatile long now;
+    
+    public ManualClock(long start) {
+        this.now = start;
+    }
+    
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+    
+    public void set(long nanos) {
+        now = nanos;
+    }
+    
+    public void advance(long nanos) {
+        now += nanos;
+    }
+}
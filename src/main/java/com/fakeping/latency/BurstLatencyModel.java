@@ -0,0 +1,23 @@
+package com.fakeping.latency;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Gilbert-Elliott burst model.
+ * 
+ * Most of the time packets get normal jitter around the base delay. About 2% of
+ * packets start a burst (bufferbloat, Wi-Fi retries) lasting around ten packets,
+ * during which the delay jumps by the larger of the base delay or four times the jitter.
+ */
+public class BurstLatencyModel implements LatencyModel {
+    private final GilbertElliottState state = new GilbertElliottState(0.02, 0.1);
+    
+    @Override
+    public int sampleDelayMs(int baseMs, int jitterMs, RandomGenerator random, long now) {
+        float offset = jitterMs * InverseCdfTable.NORMAL.sample(random);
+        if (state.step(random)) {
+            offset += Math.max(baseMs, 4 * jitterMs);
+        }
+        return Math.max(0, baseMs + Math.round(offset));
+    }
+}
@@ -0,0 +1,46 @@
+package com.fakeping.latency;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Two-state Markov chain (Gilbert-Elliott) used to model bursty links.
+ * 
+ * Each step moves between a "good" and a "bad" state with fixed transition
+ * probabilities, so bad events cluster together instead of being spread evenly.
+ * The state is a plain volatile flag: concurrent steps may race, which only
+ * makes a burst start or end one packet earlier.
+ */
+public class GilbertElliottState {
+    private final double enterBad;
+    private final double leaveBad;
+    private volatile boolean bad;
+    
+    /**
+     * @param enterBad Probability per step of going from good to bad
+     * @param leaveBad Probability per step of going from bad back to good
+     */
+    public GilbertElliottState(double enterBad, double leaveBad) {
+        this.enterBad = enterBad;
+        this.leaveBad = leaveBad;
+    }
+    
+    /**
+     * Advance one step.
+     * 
+     * @return true if the chain is in the bad state after this step
+     */
+    public boolean step(RandomGenerator random) {
+        boolean nowBad = bad
+                ? random.nextDouble() >= leaveBad
+                : random.nextDouble() < enterBad;
+        bad = nowBad;
+        return nowBad;
+    }
+    
+    /**
+     * Long-run fraction of steps spent in the bad state.
+     */
+    public double badFraction() {
+        return enterBad / (enterBad + leaveBad);
+    }
+}
@@ -0,0 +1,78 @@
+package com.fakeping.latency;
+
+import java.util.function.DoubleUnaryOperator;
+import java.util.random.RandomGenerator;
+
+/**
+ * Precomputed inverse-CDF lookup table for a distribution.
+ * 
+ * The quantile function is evaluated once per table entry when the table is
+ * built, so drawing a sample is one random index into a float array instead of
+ * a Math.log/exp call per packet. With 4096 entries the quantization is far
+ * below the millisecond resolution delays are applied at.
+ * 
+ * Values are offsets in units of jitter: the delay is base + jitter * value.
+ */
+public final class InverseCdfTable {
+    private static final int SIZE = 4096;
+    
+    /** Uniform in [-1, 1]. */
+    public static final InverseCdfTable UNIFORM = new InverseCdfTable(p -> 2 * p - 1);
+    
+    /** Normal with sigma 1/2, so ±1 covers about 95% of packets. */
+    public static final InverseCdfTable NORMAL = new InverseCdfTable(p -> normalQuantile(p) / 2);
+    
+    /** Log-normal (sigma 0.6) shifted to a median of 0: mostly small, with a long late tail. */
+    public static final InverseCdfTable LOG_NORMAL = new InverseCdfTable(p -> Math.exp(0.6 * normalQuantile(p)) - 1);
+    
+    /** Pareto (alpha 2.5) shifted to start at 0: never early, heavy tail of spikes. */
+    public static final InverseCdfTable PARETO = new InverseCdfTable(p -> Math.pow(1 - p, -1 / 2.5) - 1);
+    
+    private final float[] values;
+    
+    public InverseCdfTable(DoubleUnaryOperator quantile) {
+        values = new float[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            // Midpoint of each probability bucket, which keeps the ends finite
+            values[i] = (float) quantile.applyAsDouble((i + 0.5) / SIZE);
+        }
+    }
+    
+    /**
+     * Draw a sample.
+     */
+    public float sample(RandomGenerator random) {
+        return values[random.nextInt(SIZE)];
+    }
+    
+    /**
+     * Quantile of the standard normal distribution (Acklam's rational approximation,
+     * relative error below 1.2e-9). Only used while building tables.
+     */
+    static double normalQuantile(double p) {
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00};
+        final double low = 0.02425;
+        
+        if (p < low) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - low) {
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+}
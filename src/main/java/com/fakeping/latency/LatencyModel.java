@@ -0,0 +1,43 @@
+package com.fakeping.latency;
+
+import com.fakeping.config.LatencyModelType;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Produces the delay applied to a single packet.
+ * 
+ * Implementations must be safe to call from several threads at once without
+ * locking; randomness comes from the generator passed in (normally
+ * ThreadLocalRandom), and any internal state is updated racily on purpose.
+ * Time comes from the caller as well, so a pipeline on a manual clock stays
+ * reproducible with models that play something back.
+ */
+public interface LatencyModel {
+    
+    /**
+     * Sample the delay for one packet.
+     * 
+     * @param baseMs Configured base delay
+     * @param jitterMs Configured jitter, the scale of the random part
+     * @param random Source of randomness
+     * @param now Current time of the caller's clock (System.nanoTime() in the game)
+     * @return Delay in milliseconds, never negative
+     */
+    int sampleDelayMs(int baseMs, int jitterMs, RandomGenerator random, long now);
+    
+    /**
+     * Create a fresh model of the given type. Stateful models (burst, random walk)
+     * keep their state per instance, so use one instance per direction.
+     */
+    static LatencyModel create(LatencyModelType type) {
+        return switch (type) {
+            case UNIFORM -> new TableLatencyModel(InverseCdfTable.UNIFORM);
+            case NORMAL -> new TableLatencyModel(InverseCdfTable.NORMAL);
+            case LOG_NORMAL -> new TableLatencyModel(InverseCdfTable.LOG_NORMAL);
+            case PARETO -> new TableLatencyModel(InverseCdfTable.PARETO);
+            case BURST -> new BurstLatencyModel();
+            case RANDOM_WALK -> new RandomWalkLatencyModel();
+        };
+    }
+}
@@ -0,0 +1,192 @@
+package com.fakeping.latency;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A scripted change of the base delay over time, e.g. a ramp from 50 to 250ms,
+ * a spike every 20 seconds or a few seconds of server lag.
+ * 
+ * Timelines are written as JSON and compiled once into flat segment arrays:
+ * <pre>
+ * { "segments": [
+ *     { "type": "ramp",   "from": 50,   "to": 250, "duration": 30000 },
+ *     { "type": "hold",   "delay": 150, "duration": 19800 },
+ *     { "type": "hold",   "delay": 600, "duration": 200 },
+ *     { "type": "freeze", "delay": 150, "duration": 5000 }
+ * ] }
+ * </pre>
+ * A hold keeps the delay constant, a ramp changes it linearly, and a freeze holds
+ * everything sent during it until it ends (plus its delay), like a server that
+ * stops responding. Durations and delays are in ms.
+ * 
+ * Looking up a delay needs no parsing or allocation. Segments are found from a
+ * cursor that usually already points at the right one, since time only moves
+ * forward; only after wrapping around does it fall back to a binary search.
+ */
+public class LatencyTimeline {
+    public static final String EXTENSION = ".json";
+    
+    /** Longest delay a segment may ask for. */
+    private static final int MAX_DELAY_MS = 10_000;
+    
+    private static final byte HOLD = 0;
+    private static final byte RAMP = 1;
+    private static final byte FREEZE = 2;
+    
+    // Segment i covers [ends[i - 1], ends[i]) nanoseconds from the start
+    private final long[] ends;
+    private final int[] from;
+    private final int[] to;
+    private final byte[] types;
+    
+    private LatencyTimeline(long[] ends, int[] from, int[] to, byte[] types) {
+        this.ends = ends;
+        this.from = from;
+        this.to = to;
+        this.types = types;
+    }
+    
+    /**
+     * Load a timeline by name from a directory holding {@code <name>.json} files.
+     * 
+     * @throws IOException If there is no such timeline or it isn't valid
+     */
+    public static LatencyTimeline load(Path directory, String name) throws IOException {
+        Path path = directory.resolve(name + EXTENSION);
+        if (!Files.exists(path)) {
+            throw new IOException("No timeline named " + name);
+        }
+        try (Reader reader = Files.newBufferedReader(path)) {
+            return parse(JsonParser.parseReader(reader));
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException 
+                 | ClassCastException | NumberFormatException e) {
+            throw new IOException("Invalid timeline " + name + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Compile a parsed timeline.
+     * 
+     * @throws IOException If a segment is missing fields or out of range
+     */
+    static LatencyTimeline parse(JsonElement json) throws IOException {
+        JsonArray segments = json.getAsJsonObject().getAsJsonArray("segments");
+        if (segments == null || segments.isEmpty()) {
+            throw new IOException("Timeline has no segments");
+        }
+        
+        int count = segments.size();
+        long[] ends = new long[count];
+        int[] from = new int[count];
+        int[] to = new int[count];
+        byte[] types = new byte[count];
+        long end = 0;
+        for (int i = 0; i < count; i++) {
+            JsonObject segment = segments.get(i).getAsJsonObject();
+            String type = segment.has("type") ? segment.get("type").getAsString() : "hold";
+            switch (type) {
+                case "hold" -> {
+                    types[i] = HOLD;
+                    from[i] = to[i] = delay(segment, "delay", i);
+                }
+                case "ramp" -> {
+                    types[i] = RAMP;
+                    from[i] = delay(segment, "from", i);
+                    to[i] = delay(segment, "to", i);
+                }
+                case "freeze" -> {
+                    types[i] = FREEZE;
+                    from[i] = to[i] = segment.has("delay") ? delay(segment, "delay", i) : 0;
+                }
+                default -> throw new IOException("Segment " + (i + 1) + ": unknown type " + type);
+            }
+            
+            long duration = segment.has("duration") ? segment.get("duration").getAsLong() : 0;
+            if (duration <= 0 || duration > 24 * 3600 * 1000L) {
+                throw new IOException("Segment " + (i + 1) + ": duration must be between 1ms and 24h");
+            }
+            end += duration * 1_000_000L;
+            ends[i] = end;
+        }
+        return new LatencyTimeline(ends, from, to, types);
+    }
+    
+    private static int delay(JsonObject segment, String field, int index) throws IOException {
+        if (!segment.has(field)) {
+            throw new IOException("Segment " + (index + 1) + ": missing " + field);
+        }
+        int value = segment.get(field).getAsInt();
+        if (value < 0 || value > MAX_DELAY_MS) {
+            throw new IOException("Segment " + (index + 1) + ": " + field + " must be between 0 and " + MAX_DELAY_MS);
+        }
+        return value;
+    }
+    
+    public int size() {
+        return ends.length;
+    }
+    
+    /**
+     * Total length of one pass through the timeline.
+     */
+    public long durationNanos() {
+        return ends[ends.length - 1];
+    }
+    
+    /**
+     * Index of the segment covering the given offset. Past the end this is the
+     * last segment.
+     * 
+     * @param offsetNanos Time since the start, not negative
+     * @param hint Segment returned by the previous lookup; any value is safe
+     */
+    public int segmentAt(long offsetNanos, int hint) {
+        int last = ends.length - 1;
+        if (hint < 0 || hint > last || (hint > 0 && offsetNanos < ends[hint - 1])) {
+            // Wrapped around or a stale hint: search the whole timeline
+            int low = 0;
+            int high = last;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] <= offsetNanos) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        // Usually the same segment or the next one
+        while (hint < last && offsetNanos >= ends[hint]) {
+            hint++;
+        }
+        return hint;
+    }
+    
+    /**
+     * Base delay for something sent at the given offset.
+     * 
+     * @param segment Result of {@link #segmentAt} for the same offset
+     * @param offsetNanos Time since the start
+     */
+    public int delayMsAt(int segment, long offsetNanos) {
+        long end = ends[segment];
+        long start = segment > 0 ? ends[segment - 1] : 0;
+        long offset = Math.min(offsetNanos, end);
+        return switch (types[segment]) {
+            case RAMP -> from[segment] + (int) ((to[segment] - from[segment]) * (offset - start) / (end - start));
+            // Held until the freeze is over
+            case FREEZE -> from[segment] + (int) ((end - offset + 999_999) / 1_000_000L);
+            default -> from[segment];
+        };
+    }
+}
@@ -0,0 +1,212 @@
+package com.fakeping.latency;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A recorded ping trace, memory-mapped from its binary file.
+ * 
+ * The binary format is a 16 byte header (magic "FPTR", version, sample count,
+ * reserved) followed by fixed-size samples of two big-endian ints: the time
+ * offset from the start of the recording in ms and the measured RTT in µs.
+ * Samples are sorted by time, so a lookup is a binary search straight on the
+ * mapped file; hours of samples never have to be parsed onto the heap.
+ * 
+ * Traces are recorded as CSV ({@code timestamp_ms,rtt_ms} per line) and turned
+ * into the binary format with {@link #convertCsv}, or from the command line:
+ * {@code java -cp fakeping.jar com.fakeping.latency.LatencyTrace in.csv out.fptrace}
+ */
+public class LatencyTrace {
+    public static final String EXTENSION = ".fptrace";
+    
+    private static final int MAGIC = 0x46505452; // "FPTR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int SAMPLE_BYTES = 8;
+    
+    // Only absolute gets are used, which are safe from any number of threads
+    private final ByteBuffer samples;
+    private final int count;
+    private final int durationMs;
+    
+    private LatencyTrace(ByteBuffer samples, int count) {
+        this.samples = samples;
+        this.count = count;
+        this.durationMs = samples.getInt((count - 1) * SAMPLE_BYTES);
+    }
+    
+    /**
+     * Load a trace by name from a directory holding {@code <name>.fptrace} and/or
+     * {@code <name>.csv} files. A CSV that is newer than its binary (or has none)
+     * is converted first.
+     * 
+     * @throws IOException If there is no such trace or it can't be read
+     */
+    public static LatencyTrace load(Path directory, String name) throws IOException {
+        Path binary = directory.resolve(name + EXTENSION);
+        Path csv = directory.resolve(name + ".csv");
+        if (Files.exists(csv) && (!Files.exists(binary) 
+                || Files.getLastModifiedTime(csv).compareTo(Files.getLastModifiedTime(binary)) > 0)) {
+            convertCsv(csv, binary);
+        }
+        if (!Files.exists(binary)) {
+            throw new IOException("No trace named " + name);
+        }
+        return open(binary);
+    }
+    
+    /**
+     * Map a binary trace file.
+     * 
+     * @throws IOException If the file can't be read or isn't a valid trace
+     */
+    public static LatencyTrace open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a trace file: " + path.getFileName());
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a trace file: " + path.getFileName());
+            }
+            int count = buffer.getInt(8);
+            if (count <= 0 || HEADER_BYTES + (long) count * SAMPLE_BYTES > size) {
+                throw new IOException("Truncated or empty trace: " + path.getFileName());
+            }
+            return new LatencyTrace(buffer.slice(HEADER_BYTES, count * SAMPLE_BYTES), count);
+        }
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * Time offset of the last sample.
+     */
+    public int durationMs() {
+        return durationMs;
+    }
+    
+    /**
+     * RTT in effect at the given point of the recording: the latest sample at or
+     * before it (the first sample before the recording starts).
+     * 
+     * @param offsetMs Time since the start of the recording
+     * @return RTT in microseconds
+     */
+    public int rttMicrosAt(long offsetMs) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (samples.getInt(mid * SAMPLE_BYTES) <= offsetMs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return samples.getInt(low * SAMPLE_BYTES + 4);
+    }
+    
+    /**
+     * Convert a CSV trace to the binary format.
+     * 
+     * Each line holds a timestamp in ms (absolute or relative, decimals allowed)
+     * and an RTT in ms, separated by a comma, semicolon or whitespace. Blank lines,
+     * comments starting with # and a header line are skipped, as are samples whose
+     * timestamp goes backwards.
+     * 
+     * @return Number of samples written
+     * @throws IOException If reading or writing fails, or the CSV has no samples
+     */
+    public static int convertCsv(Path csv, Path output) throws IOException {
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        int written = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csv);
+             FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, 
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+            out.position(HEADER_BYTES);
+            double start = Double.NaN;
+            int lastOffset = Integer.MIN_VALUE;
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("[,;\\s]+");
+                if (fields.length < 2) {
+                    continue;
+                }
+                double timestamp;
+                double rttMs;
+                try {
+                    timestamp = Double.parseDouble(fields[0]);
+                    rttMs = Double.parseDouble(fields[1]);
+                } catch (NumberFormatException e) {
+                    // Header line
+                    continue;
+                }
+                if (Double.isNaN(start)) {
+                    start = timestamp;
+                }
+                long offset = Math.round(timestamp - start);
+                if (offset < lastOffset || offset > Integer.MAX_VALUE || rttMs < 0) {
+                    continue;
+                }
+                
+                if (out.remaining() < SAMPLE_BYTES) {
+                    out.flip();
+                    channel.write(out);
+                    out.clear();
+                }
+                out.putInt((int) offset);
+                out.putInt((int) Math.min(Math.round(rttMs * 1000), Integer.MAX_VALUE));
+                lastOffset = (int) offset;
+                written++;
+            }
+            
+            if (written == 0) {
+                throw new IOException("No samples in " + csv.getFileName());
+            }
+            out.flip();
+            channel.write(out);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(written).putInt(0).flip();
+            channel.write(header, 0);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+        return written;
+    }
+    
+    /**
+     * Command line converter: {@code LatencyTrace <input.csv> [output.fptrace]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: LatencyTrace <input.csv> [output" + EXTENSION + "]");
+            System.exit(1);
+        }
+        Path input = Path.of(args[0]);
+        Path output = args.length > 1 ? Path.of(args[1]) 
+                : input.resolveSibling(input.getFileName().toString().replaceFirst("\\.csv$", "") + EXTENSION);
+        int samples = convertCsv(input, output);
+        System.out.println("Wrote " + samples + " samples to " + output);
+    }
+}
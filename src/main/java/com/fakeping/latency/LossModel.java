@@ -0,0 +1,51 @@
+package com.fakeping.latency;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Decides which packets are "lost" on the simulated link.
+ * 
+ * Losses are either independent (each packet lost with the configured
+ * probability) or bursty, using a {@link GilbertElliottState} whose bad state
+ * loses half of all packets and whose transition rates are chosen so the
+ * long-run loss rate still matches the configured one.
+ */
+public class LossModel {
+    /** Loss probability while a burst is active. */
+    private static final double BURST_LOSS = 0.5;
+    /** Chance per packet that a burst ends, i.e. bursts last about four packets. */
+    private static final double LEAVE_BURST = 0.25;
+    
+    private volatile double rate;
+    private volatile GilbertElliottState burst;
+    
+    /**
+     * @param rate Long-run fraction of packets lost (0 - 0.5)
+     * @param bursty Whether losses cluster together
+     */
+    public void configure(double rate, boolean bursty) {
+        this.rate = rate;
+        if (bursty && rate > 0) {
+            // Stationary loss = BURST_LOSS * p / (p + LEAVE_BURST), solved for p
+            double target = Math.min(rate, BURST_LOSS * 0.99);
+            double enterBurst = target * LEAVE_BURST / (BURST_LOSS - target);
+            this.burst = new GilbertElliottState(Math.min(1, enterBurst), LEAVE_BURST);
+        } else {
+            this.burst = null;
+        }
+    }
+    
+    /**
+     * @return true if the next packet is lost
+     */
+    public boolean sample(RandomGenerator random) {
+        if (rate <= 0) {
+            return false;
+        }
+        GilbertElliottState state = burst;
+        if (state == null) {
+            return random.nextDouble() < rate;
+        }
+        return state.step(random) && random.nextDouble() < BURST_LOSS;
+    }
+}
@@ -0,0 +1,32 @@
+package com.fakeping.latency;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Correlated drift: the delay wanders slowly within ±jitter around the base
+ * instead of jumping independently for every packet.
+ * 
+ * The drift is a bounded random walk with weak pull back towards zero, plus a
+ * little per-packet noise. It is stored in a volatile field and updated racily;
+ * a lost update just means one step of the walk is skipped.
+ */
+public class RandomWalkLatencyModel implements LatencyModel {
+    private static final float STEP = 0.05f;
+    private static final float NOISE = 0.15f;
+    private static final float REVERSION = 0.995f;
+    
+    private volatile float drift;
+    
+    @Override
+    public int sampleDelayMs(int baseMs, int jitterMs, RandomGenerator random, long now) {
+        float next = (drift + STEP * 2 * InverseCdfTable.NORMAL.sample(random)) * REVERSION;
+        next = Math.max(-1f, Math.min(1f, next));
+        drift = next;
+        
+        if (jitterMs == 0) {
+            return baseMs;
+        }
+        float offset = next + NOISE * InverseCdfTable.UNIFORM.sample(random);
+        return Math.max(0, baseMs + Math.round(jitterMs * offset));
+    }
+}
@@ -0,0 +1,22 @@
+package com.fakeping.latency;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Stateless model: base delay plus jitter scaled by a draw from an {@link InverseCdfTable}.
+ */
+public class TableLatencyModel implements LatencyModel {
+    private final InverseCdfTable table;
+    
+    public TableLatencyModel(InverseCdfTable table) {
+        this.table = table;
+    }
+    
+    @Override
+    public int sampleDelayMs(int baseMs, int jitterMs, RandomGenerator random, long now) {
+        if (jitterMs == 0) {
+            return baseMs;
+        }
+        return Math.max(0, baseMs + Math.round(jitterMs * table.sample(random)));
+    }
+}
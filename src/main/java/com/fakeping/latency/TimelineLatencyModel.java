@@ -0,0 +1,52 @@
+package com.fakeping.latency;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Plays a {@link LatencyTimeline}: the timeline sets the base delay, and the
+ * wrapped model adds jitter around it as usual.
+ * 
+ * Playback runs on the caller's clock from the given start time. At the end of the
+ * timeline it either loops or holds the final delay.
+ */
+public class TimelineLatencyModel implements LatencyModel {
+    private final LatencyTimeline timeline;
+    private final LatencyModel jitterModel;
+    private final long startNanos;
+    private final boolean loop;
+    // Segment of the last lookup. Racy on purpose: it's only a hint, and any value is valid
+    private int cursor;
+    
+    /**
+     * @param timeline The timeline to play
+     * @param jitterModel Model sampling the jitter around the timeline's delay
+     * @param startNanos Time at which playback started, on the clock samples are taken with
+     * @param loop Start over at the end instead of holding the final delay
+     */
+    public TimelineLatencyModel(LatencyTimeline timeline, LatencyModel jitterModel, long startNanos, boolean loop) {
+        this.timeline = timeline;
+        this.jitterModel = jitterModel;
+        this.startNanos = startNanos;
+        this.loop = loop;
+    }
+    
+    @Override
+    public int sampleDelayMs(int baseMs, int jitterMs, RandomGenerator random, long now) {
+        long offset = Math.max(0, now - startNanos);
+        if (loop) {
+            offset %= timeline.durationNanos();
+        }
+        int segment = timeline.segmentAt(offset, cursor);
+        cursor = segment;
+        return jitterModel.sampleDelayMs(timeline.delayMsAt(segment, offset), jitterMs, random, now);
+    }
+    
+    /**
+     * Whether a non-looping timeline has played to the end.
+     * 
+     * @param now Current time of the clock samples are taken with
+     */
+    public boolean isFinished(long now) {
+        return !loop && now - startNanos >= timeline.durationNanos();
+    }
+}
@@ -0,0 +1,59 @@
+package com.fakeping.latency;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket modelling a link with limited bandwidth.
+ * 
+ * Implemented as a GCRA (generic cell rate algorithm): instead of counting tokens
+ * it keeps the "theoretical arrival time" at which the link becomes idle again.
+ * Reserving a packet is one CAS on that timestamp, so any number of threads can
+ * use the bucket without locking and without a refill task.
+ */
+public class TokenBucket {
+    /** Bytes the link can absorb instantly before packets start queueing (one MTU). */
+    private static final long BURST_BYTES = 1500;
+    
+    private final AtomicLong idleAt = new AtomicLong(Long.MIN_VALUE);
+    private volatile long nanosPerByte;
+    
+    /**
+     * Set the link rate.
+     * 
+     * @param kbps Rate in kbit/s, 0 for unlimited
+     */
+    public void setRate(int kbps) {
+        // 1 kbit/s = 125 bytes/s
+        nanosPerByte = kbps > 0 ? 8_000_000L / kbps : 0;
+    }
+    
+    public boolean isLimited() {
+        return nanosPerByte > 0;
+    }
+    
+    /**
+     * Reserve link time for a packet.
+     * 
+     * @param bytes Size of the packet on the wire
+     * @param now Current System.nanoTime()
+     * @return Queueing plus serialization delay in nanoseconds until the packet's last byte is sent
+     */
+    public long reserve(int bytes, long now) {
+        long perByte = nanosPerByte;
+        if (perByte == 0) {
+            return 0;
+        }
+        long cost = bytes * perByte;
+        long burst = BURST_BYTES * perByte;
+        
+        while (true) {
+            long idle = idleAt.get();
+            long start = Math.max(idle, now);
+            if (idleAt.compareAndSet(idle, start + cost)) {
+                // Within the burst allowance the packet only pays its own serialization time
+                long queueing = Math.max(0, start - now - burst);
+                return queueing + cost;
+            }
+        }
+    }
+}
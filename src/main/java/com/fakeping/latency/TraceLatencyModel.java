@@ -0,0 +1,59 @@
+package com.fakeping.latency;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Replays a recorded {@link LatencyTrace} instead of generating random delays.
+ * 
+ * Playback starts at the given time and runs on the caller's clock, sped up or
+ * slowed down by the time scale. At the end of the trace it either loops or
+ * holds the last recorded value. The configured base delay and jitter are
+ * ignored: the recording already contains both. Speed and looping can be changed
+ * during playback without starting over.
+ */
+public class TraceLatencyModel implements LatencyModel {
+    private final LatencyTrace trace;
+    private volatile Playback playback;
+    
+    /**
+     * Playback from offsetMs into the trace at anchorNanos on, at the given speed.
+     */
+    private record Playback(long anchorNanos, long offsetMs, double timeScale, boolean loop) {
+    }
+    
+    /**
+     * @param startNanos Time at which playback starts, on the clock samples are taken with
+     */
+    public TraceLatencyModel(LatencyTrace trace, double timeScale, boolean loop, long startNanos) {
+        this.trace = trace;
+        this.playback = new Playback(startNanos, 0, timeScale, loop);
+    }
+    
+    /**
+     * Change the speed or looping, continuing from the current position.
+     * 
+     * @param now Current time of the clock samples are taken with
+     */
+    public synchronized void setPlayback(double timeScale, boolean loop, long now) {
+        Playback current = playback;
+        if (current.timeScale() == timeScale && current.loop() == loop) {
+            return;
+        }
+        playback = new Playback(now, position(current, now), timeScale, loop);
+    }
+    
+    private long position(Playback current, long now) {
+        // Scaled before rounding to ms, so a sped-up trace doesn't advance in steps of timeScale ms
+        long offsetMs = current.offsetMs() + (long) ((now - current.anchorNanos()) * current.timeScale() / 1_000_000L);
+        int duration = trace.durationMs();
+        if (current.loop() && duration > 0) {
+            offsetMs %= duration + 1;
+        }
+        return offsetMs;
+    }
+    
+    @Override
+    public int sampleDelayMs(int baseMs, int jitterMs, RandomGenerator random, long now) {
+        return (trace.rttMicrosAt(position(playback, now)) + 500) / 1000;
+    }
+}
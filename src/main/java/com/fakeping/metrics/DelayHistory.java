@@ -0,0 +1,85 @@
+package com.fakeping.metrics;
+
+/**
+ * Recent applied delays and queue depth in fixed time buckets, for the HUD graph.
+ * 
+ * A preallocated ring of 100ms buckets covering the last minute. Each bucket
+ * keeps the largest delay released in it and the deepest queue seen. Only one
+ * thread writes at a time (callers hold the release lock); the render thread
+ * reads the plain arrays without locking, which at worst shows a bucket that is
+ * being updated. Neither side allocates.
+ */
+public class DelayHistory {
+    public static final int BUCKET_MS = 100;
+    public static final int CAPACITY = 600;
+    private static final long BUCKET_NANOS = BUCKET_MS * 1_000_000L;
+    
+    private final int[] maxDelayMs = new int[CAPACITY];
+    private final int[] queueDepth = new int[CAPACITY];
+    // Bucket number (nanoTime / BUCKET_NANOS) most recently written, published to readers
+    private volatile long head = Long.MIN_VALUE;
+    
+    /**
+     * Record one released packet. Must not be called concurrently.
+     * 
+     * @param now Current System.nanoTime()
+     * @param delayNanos Delay the packet actually got
+     * @param depth Packets still queued
+     */
+    public void record(long now, long delayNanos, int depth) {
+        long bucket = Math.floorDiv(now, BUCKET_NANOS);
+        long last = head;
+        if (last != Long.MIN_VALUE && bucket <= last - CAPACITY) {
+            return;
+        }
+        if (bucket > last) {
+            // Clear the buckets skipped over since the last write (at most one lap)
+            long from = last == Long.MIN_VALUE ? bucket - CAPACITY + 1 : Math.max(last + 1, bucket - CAPACITY + 1);
+            for (long b = from; b <= bucket; b++) {
+                int slot = slot(b);
+                maxDelayMs[slot] = 0;
+                queueDepth[slot] = 0;
+            }
+        }
+        
+        int slot = slot(bucket);
+        int delayMs = (int) Math.min(delayNanos / 1_000_000L, Integer.MAX_VALUE);
+        if (delayMs > maxDelayMs[slot]) {
+            maxDelayMs[slot] = delayMs;
+        }
+        if (depth > queueDepth[slot]) {
+            queueDepth[slot] = depth;
+        }
+        if (bucket > last) {
+            head = bucket;
+        }
+    }
+    
+    /**
+     * Copy the most recent buckets, oldest first. Buckets with no releases read as 0.
+     * 
+     * @param now Current System.nanoTime()
+     * @param count Number of buckets to copy, at most {@link #CAPACITY}
+     * @param delaysOut Receives the largest delay per bucket in ms
+     * @param depthsOut Receives the deepest queue per bucket
+     */
+    public void copyRecent(long now, int count, int[] delaysOut, int[] depthsOut) {
+        long newest = Math.floorDiv(now, BUCKET_NANOS);
+        long written = head;
+        for (int i = 0; i < count; i++) {
+            long bucket = newest - count + 1 + i;
+            if (bucket > written || bucket <= written - CAPACITY) {
+                delaysOut[i] = 0;
+                depthsOut[i] = 0;
+            } else {
+                int slot = slot(bucket);
+                delaysOut[i] = maxDelayMs[slot];
+                depthsOut[i] = queueDepth[slot];
+            }
+        }
+    }
+    
+    private static int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) CAPACITY);
+    }
+}
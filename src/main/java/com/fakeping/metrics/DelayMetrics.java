@@ -0,0 +1,197 @@
+package com.fakeping.metrics;
+
+import com.fakeping.network.PacketCategory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-category accuracy metrics for the delay pipeline.
+ * 
+ * For every category this records how long packets were meant to be held (target
+ * delay), how long they actually were (queued until really sent or handled),
+ * and how late the release was compared to the deadline the queue assigned.
+ * It also tracks the number of packets in flight and its high-water mark, and
+ * how many event-loop tasks and flushes the released packets cost, and how
+ * often a full queue turned packets away.
+ * 
+ * Everything is lock-free and allocation-free on the recording side, so it stays
+ * on all the time. Reading is only done by /ping stats and the export.
+ */
+public class DelayMetrics {
+    private final Category[] categories = new Category[PacketCategory.values().length];
+    private final AtomicLong resetAt = new AtomicLong(System.nanoTime());
+    private final AtomicLong eventLoopTasks = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedPackets = new AtomicLong();
+    private final AtomicLong overflowDropped = new AtomicLong();
+    private final AtomicLong overflowEvicted = new AtomicLong();
+    private final AtomicLong overflowBypassed = new AtomicLong();
+    
+    public DelayMetrics() {
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = new Category();
+        }
+    }
+    
+    /**
+     * A packet was queued.
+     * 
+     * @param targetNanos Delay the packet was supposed to get before ordering and loss
+     */
+    public void recordQueued(PacketCategory category, long targetNanos) {
+        Category metrics = categories[category.ordinal()];
+        metrics.targetDelay.record(targetNanos / 1000);
+        
+        int depth = metrics.inFlight.incrementAndGet();
+        int highWater = metrics.depthHighWater.get();
+        while (depth > highWater && !metrics.depthHighWater.compareAndSet(highWater, depth)) {
+            highWater = metrics.depthHighWater.get();
+        }
+    }
+    
+    /**
+     * A queued packet was sent (outbound) or handled (inbound).
+     * 
+     * @param queuedAt When the packet was queued (System.nanoTime())
+     * @param sendTime Deadline the queue assigned
+     * @param now When it actually went out
+     */
+    public void recordReleased(PacketCategory category, long queuedAt, long sendTime, long now) {
+        Category metrics = categories[category.ordinal()];
+        metrics.inFlight.decrementAndGet();
+        metrics.appliedDelay.record((now - queuedAt) / 1000);
+        metrics.lateness.record((now - sendTime) / 1000);
+    }
+    
+    /**
+     * A queued packet was dropped without being sent (queue cleared, connection closed).
+     */
+    public void recordDropped(PacketCategory category) {
+        categories[category.ordinal()].inFlight.decrementAndGet();
+    }
+    
+    /**
+     * A queue was full and the new packet was dropped without being queued.
+     */
+    public void recordOverflowDropped() {
+        overflowDropped.incrementAndGet();
+    }
+    
+    /**
+     * A queued packet was dropped to make room for a new one.
+     */
+    public void recordEvicted(PacketCategory category) {
+        categories[category.ordinal()].inFlight.decrementAndGet();
+        overflowEvicted.incrementAndGet();
+    }
+    
+    /**
+     * A queue was full and the new packet was sent without delay.
+     */
+    public void recordOverflowBypassed() {
+        overflowBypassed.incrementAndGet();
+    }
+    
+    /**
+     * A batch of released packets was handed to a connection's event loop.
+     */
+    public void recordEventLoopTask() {
+        eventLoopTasks.incrementAndGet();
+    }
+    
+    /**
+     * A connection was flushed after writing the given number of released packets.
+     */
+    public void recordFlush(int packets) {
+        flushes.incrementAndGet();
+        flushedPackets.addAndGet(packets);
+    }
+    
+    /**
+     * Clear all histograms and high-water marks. Packets still in flight stay counted.
+     */
+    public void reset() {
+        for (Category metrics : categories) {
+            metrics.targetDelay.reset();
+            metrics.appliedDelay.reset();
+            metrics.lateness.reset();
+            metrics.depthHighWater.set(metrics.inFlight.get());
+        }
+        eventLoopTasks.set(0);
+        flushes.set(0);
+        flushedPackets.set(0);
+        overflowDropped.set(0);
+        overflowEvicted.set(0);
+        overflowBypassed.set(0);
+        resetAt.set(System.nanoTime());
+    }
+    
+    /**
+     * Current numbers for one category.
+     */
+    public CategoryStats getStats(PacketCategory category) {
+        Category metrics = categories[category.ordinal()];
+        LatencyHistogram.Summary applied = metrics.appliedDelay.summarize();
+        double seconds = (System.nanoTime() - resetAt.get()) / 1e9;
+        return new CategoryStats(category,
+                metrics.targetDelay.summarize(),
+                applied,
+                metrics.lateness.summarize(),
+                metrics.depthHighWater.get(),
+                seconds > 0 ? applied.count() / seconds : 0);
+    }
+    
+    /**
+     * Event-loop cost of sending released packets since the last reset.
+     */
+    public ReleaseStats getReleaseStats() {
+        double seconds = (System.nanoTime() - resetAt.get()) / 1e9;
+        long flushCount = flushes.get();
+        return new ReleaseStats(
+                seconds > 0 ? eventLoopTasks.get() / seconds : 0,
+                seconds > 0 ? flushCount / seconds : 0,
+                flushCount > 0 ? (double) flushedPackets.get() / flushCount : 0);
+    }
+    
+    /**
+     * Packets turned away by a full queue since the last reset.
+     */
+    public OverflowStats getOverflowStats() {
+        return new OverflowStats(overflowDropped.get(), overflowEvicted.get(), overflowBypassed.get());
+    }
+    
+    private static final class Category {
+        final LatencyHistogram targetDelay = new LatencyHistogram();
+        final LatencyHistogram appliedDelay = new LatencyHistogram();
+        final LatencyHistogram lateness = new LatencyHistogram();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger depthHighWater = new AtomicInteger();
+    }
+    
+    /**
+     * Metrics of one category since the last reset. Durations are in microseconds.
+     */
+    public record CategoryStats(PacketCategory category,
+                                LatencyHistogram.Summary targetDelay,
+                                LatencyHistogram.Summary appliedDelay,
+                                LatencyHistogram.Summary lateness,
+                                int depthHighWater,
+                                double packetsPerSecond) {
+    }
+    
+    /**
+     * Event-loop tasks and flushes per second, and the average number of packets written per flush.
+     */
+    public record ReleaseStats(double tasksPerSecond, double flushesPerSecond, double packetsPerFlush) {
+    }
+    
+    /**
+     * New packets dropped, queued packets evicted, and new packets sent undelayed because a queue was full.
+     */
+    public record OverflowStats(long dropped, long evicted, long bypassed) {
+        public long total() {
+            return dropped + evicted + bypassed;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.fakeping.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in microseconds, in the style of HdrHistogram.
+ * 
+ * Buckets are log-linear: values below 64µs are counted exactly, above that every
+ * power of two is split into 32 linear sub-buckets, so any recorded value is
+ * reported within about 3% no matter its magnitude. Counts live in a primitive
+ * {@link AtomicLongArray}; recording is one atomic increment and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values from 2^41µs (about 25 days) up are clamped into the last bucket. */
+    private static final int MAX_BIT = 40;
+    private static final int BUCKETS = 2 * SUB_BUCKETS + (MAX_BIT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Record one value. Negative values count as 0.
+     */
+    public void record(long micros) {
+        long value = Math.max(micros, 0);
+        counts.incrementAndGet(bucketOf(value));
+        
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+    
+    /**
+     * Clear all recorded values. Values recorded concurrently may or may not survive.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+    
+    /**
+     * Take a consistent-enough copy for reporting.
+     */
+    public Summary summarize() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        // Bucket upper bounds can overshoot the largest value actually recorded
+        long largest = max.get();
+        return new Summary(total,
+                Math.min(percentile(copy, total, 0.50), largest),
+                Math.min(percentile(copy, total, 0.90), largest),
+                Math.min(percentile(copy, total, 0.99), largest),
+                largest);
+    }
+    
+    private static long percentile(long[] copy, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < copy.length; i++) {
+            seen += copy[i];
+            if (seen >= rank) {
+                return highestValueIn(i);
+            }
+        }
+        return highestValueIn(copy.length - 1);
+    }
+    
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit > MAX_BIT) {
+            return BUCKETS - 1;
+        }
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift);
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+    
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long mantissa = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+    
+    /**
+     * Recorded values at a point in time, all in microseconds.
+     */
+    public record Summary(long count, long p50, long p90, long p99, long max) {
+    }
+}
@@ -0,0 +1,101 @@
+package com.fakeping.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer single-consumer ring of session records.
+ * 
+ * Fields are kept in parallel primitive arrays, so offering a record is a few
+ * array stores and one ordered write of the tail; nothing is allocated. The
+ * producer never waits: when the consumer falls behind and the ring is full,
+ * the record is refused.
+ * 
+ * "Single producer" means one at a time. Several threads may produce as long as
+ * they hand over through a lock, like the release passes of the packet manager.
+ */
+final class RecordRing {
+    private final int capacity;
+    private final int mask;
+    private final long[] queuedAt;
+    private final long[] releasedAt;
+    private final int[] targetMicros;
+    private final int[] scheduledMicros;
+    private final int[] depths;
+    private final byte[] categories;
+    private final byte[] flags;
+    // Next slot to read, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+    // Producer's last look at the head, so a ring with room needs no read of it
+    private long cachedHead;
+    
+    /**
+     * @param capacity Number of records, a power of two
+     */
+    RecordRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.queuedAt = new long[capacity];
+        this.releasedAt = new long[capacity];
+        this.targetMicros = new int[capacity];
+        this.scheduledMicros = new int[capacity];
+        this.depths = new int[capacity];
+        this.categories = new byte[capacity];
+        this.flags = new byte[capacity];
+    }
+    
+    /**
+     * Add a record. Producer side.
+     * 
+     * @return false if the ring is full and the record was dropped
+     */
+    boolean offer(long queued, long released, int target, int scheduled, int depth, int category, int recordFlags) {
+        long t = tail.getPlain();
+        if (t - cachedHead >= capacity) {
+            cachedHead = head.getAcquire();
+            if (t - cachedHead >= capacity) {
+                return false;
+            }
+        }
+        int i = (int) t & mask;
+        queuedAt[i] = queued;
+        releasedAt[i] = released;
+        targetMicros[i] = target;
+        scheduledMicros[i] = scheduled;
+        depths[i] = depth;
+        categories[i] = (byte) category;
+        flags[i] = (byte) recordFlags;
+        tail.setRelease(t + 1);
+        return true;
+    }
+    
+    /**
+     * Move as many records as fit into the buffer, in the layout described by
+     * {@link SessionRecorder}. Consumer side.
+     * 
+     * @return Number of records written
+     */
+    int drainTo(ByteBuffer out) {
+        long h = head.getPlain();
+        long available = tail.getAcquire() - h;
+        int count = (int) Math.min(available, out.remaining() / SessionRecorder.RECORD_BYTES);
+        for (int n = 0; n < count; n++) {
+            int i = (int) (h + n) & mask;
+            out.putLong(queuedAt[i])
+               .putLong(releasedAt[i])
+               .putInt(targetMicros[i])
+               .putInt(scheduledMicros[i])
+               .putInt(depths[i])
+               .put(categories[i])
+               .put(flags[i])
+               .putShort((short) 0);
+        }
+        head.setRelease(h + count);
+        return count;
+    }
+}
@@ -0,0 +1,219 @@
+package com.fakeping.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Offline summary of a {@link SessionRecorder} recording.
+ * 
+ * Prints target delay, actual delay (queued until released) and lateness
+ * percentiles per category, and writes a timeline CSV with one row per time
+ * bucket and category: packets, drops, mean target and actual delay, worst delay
+ * and the deepest queue seen. Runs without Minecraft:
+ * {@code java -cp fakeping.jar com.fakeping.metrics.SessionAnalyzer session-*.fprec}
+ */
+public class SessionAnalyzer {
+    private static final long DEFAULT_BUCKET_MS = 1000;
+    
+    private final String[] categoryIds;
+    private final LatencyHistogram[][] histograms;
+    private final long[] dropped;
+    private final long bucketNanos;
+    private final BufferedWriter timeline;
+    
+    // Current timeline bucket, per category
+    private long bucket = Long.MIN_VALUE;
+    private final long[] bucketPackets;
+    private final long[] bucketDropped;
+    private final long[] bucketTarget;
+    private final long[] bucketApplied;
+    private final long[] bucketMaxApplied;
+    private final int[] bucketMaxDepth;
+    
+    private SessionAnalyzer(String[] categoryIds, long bucketNanos, BufferedWriter timeline) throws IOException {
+        int count = categoryIds.length;
+        this.categoryIds = categoryIds;
+        this.histograms = new LatencyHistogram[count][3];
+        for (LatencyHistogram[] category : histograms) {
+            for (int i = 0; i < category.length; i++) {
+                category[i] = new LatencyHistogram();
+            }
+        }
+        this.dropped = new long[count];
+        this.bucketNanos = bucketNanos;
+        this.timeline = timeline;
+        this.bucketPackets = new long[count];
+        this.bucketDropped = new long[count];
+        this.bucketTarget = new long[count];
+        this.bucketApplied = new long[count];
+        this.bucketMaxApplied = new long[count];
+        this.bucketMaxDepth = new int[count];
+        timeline.write("time_s,category,packets,dropped,target_mean_ms,actual_mean_ms,actual_max_ms,queue_depth_max\n");
+    }
+    
+    /**
+     * A mapped segment file with its header read.
+     */
+    private record Segment(Path path, int index, long startEpochMillis, String[] categoryIds, ByteBuffer records) {
+    }
+    
+    private static Segment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SessionRecorder.HEADER_BYTES) {
+                throw new IOException("Not a session recording: " + path.getFileName());
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != SessionRecorder.MAGIC || buffer.getInt(4) != SessionRecorder.VERSION
+                    || buffer.getInt(8) != SessionRecorder.RECORD_BYTES) {
+                throw new IOException("Not a session recording: " + path.getFileName());
+            }
+            long count = buffer.getLong(SessionRecorder.COUNT_OFFSET);
+            if (count < 0 || SessionRecorder.HEADER_BYTES + count * SessionRecorder.RECORD_BYTES > size) {
+                throw new IOException("Truncated recording: " + path.getFileName());
+            }
+            byte[] ids = new byte[buffer.getShort(SessionRecorder.CATEGORIES_OFFSET)];
+            buffer.get(SessionRecorder.CATEGORIES_OFFSET + 2, ids);
+            return new Segment(path, buffer.getInt(12), buffer.getLong(16),
+                    new String(ids, StandardCharsets.UTF_8).split(","),
+                    buffer.slice(SessionRecorder.HEADER_BYTES, (int) count * SessionRecorder.RECORD_BYTES));
+        }
+    }
+    
+    private void add(ByteBuffer records) throws IOException {
+        while (records.hasRemaining()) {
+            long queuedAt = records.getLong();
+            long releasedAt = records.getLong();
+            int target = records.getInt();
+            int scheduled = records.getInt();
+            int depth = records.getInt();
+            int category = records.get() & 0xFF;
+            int flags = records.get();
+            records.getShort();
+            if (category >= categoryIds.length) {
+                continue;
+            }
+            
+            // Releases are recorded in order, so buckets only move forward
+            long recordBucket = Math.max(bucket, Math.floorDiv(releasedAt, bucketNanos));
+            if (recordBucket != bucket) {
+                flushBucket();
+                bucket = recordBucket;
+            }
+            if ((flags & SessionRecorder.FLAG_DROPPED) != 0) {
+                dropped[category]++;
+                bucketDropped[category]++;
+                continue;
+            }
+            
+            long applied = (releasedAt - queuedAt) / 1000;
+            histograms[category][0].record(target);
+            histograms[category][1].record(applied);
+            histograms[category][2].record(applied - scheduled);
+            bucketPackets[category]++;
+            bucketTarget[category] += target;
+            bucketApplied[category] += applied;
+            bucketMaxApplied[category] = Math.max(bucketMaxApplied[category], applied);
+            bucketMaxDepth[category] = Math.max(bucketMaxDepth[category], depth);
+        }
+    }
+    
+    private void flushBucket() throws IOException {
+        if (bucket == Long.MIN_VALUE) {
+            return;
+        }
+        for (int i = 0; i < categoryIds.length; i++) {
+            long packets = bucketPackets[i];
+            if (packets == 0 && bucketDropped[i] == 0) {
+                continue;
+            }
+            timeline.write(String.format(Locale.ROOT, "%.3f,%s,%d,%d,%.3f,%.3f,%.3f,%d\n",
+                    bucket * bucketNanos / 1e9, categoryIds[i], packets, bucketDropped[i],
+                    packets > 0 ? bucketTarget[i] / 1000.0 / packets : 0,
+                    packets > 0 ? bucketApplied[i] / 1000.0 / packets : 0,
+                    bucketMaxApplied[i] / 1000.0, bucketMaxDepth[i]));
+            bucketPackets[i] = 0;
+            bucketDropped[i] = 0;
+            bucketTarget[i] = 0;
+            bucketApplied[i] = 0;
+            bucketMaxApplied[i] = 0;
+            bucketMaxDepth[i] = 0;
+        }
+    }
+    
+    private void printSummary() {
+        System.out.println("category       packets  dropped | target p50/p99 ms | actual p50/p90/p99/max ms | late p99 ms");
+        for (int i = 0; i < categoryIds.length; i++) {
+            LatencyHistogram.Summary target = histograms[i][0].summarize();
+            LatencyHistogram.Summary actual = histograms[i][1].summarize();
+            LatencyHistogram.Summary late = histograms[i][2].summarize();
+            if (actual.count() == 0 && dropped[i] == 0) {
+                continue;
+            }
+            System.out.printf(Locale.ROOT, "%-12s %9d %8d | %7.1f %7.1f | %7.1f %7.1f %7.1f %7.1f | %7.1f%n",
+                    categoryIds[i], actual.count(), dropped[i],
+                    target.p50() / 1000.0, target.p99() / 1000.0,
+                    actual.p50() / 1000.0, actual.p90() / 1000.0, actual.p99() / 1000.0, actual.max() / 1000.0,
+                    late.p99() / 1000.0);
+        }
+    }
+    
+    /**
+     * Command line: {@code SessionAnalyzer <segment.fprec>... [--csv out.csv] [--bucket ms]}
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        Path csv = null;
+        long bucketMs = DEFAULT_BUCKET_MS;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--csv") && i + 1 < args.length) {
+                csv = Path.of(args[++i]);
+            } else if (args[i].equals("--bucket") && i + 1 < args.length) {
+                bucketMs = Math.max(1, Long.parseLong(args[++i]));
+            } else {
+                paths.add(Path.of(args[i]));
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("Usage: SessionAnalyzer <segment" + SessionRecorder.EXTENSION
+                    + ">... [--csv out.csv] [--bucket ms]");
+            System.exit(1);
+        }
+        
+        List<Segment> segments = new ArrayList<>();
+        for (Path path : paths) {
+            segments.add(open(path));
+        }
+        segments.sort(Comparator.comparingInt(Segment::index));
+        Segment first = segments.get(0);
+        for (Segment segment : segments) {
+            if (segment.startEpochMillis() != first.startEpochMillis()) {
+                throw new IOException(segment.path().getFileName() + " belongs to another recording");
+            }
+        }
+        if (csv == null) {
+            String name = first.path().getFileName().toString().replaceFirst("-\\d+\\" + SessionRecorder.EXTENSION + "$", "");
+            csv = first.path().resolveSibling(name + "-timeline.csv");
+        }
+        
+        try (BufferedWriter writer = Files.newBufferedWriter(csv)) {
+            SessionAnalyzer analyzer = new SessionAnalyzer(first.categoryIds(), bucketMs * 1_000_000L, writer);
+            for (Segment segment : segments) {
+                analyzer.add(segment.records());
+            }
+            analyzer.flushBucket();
+            analyzer.printSummary();
+        }
+        System.out.println("Timeline written to " + csv);
+    }
+}
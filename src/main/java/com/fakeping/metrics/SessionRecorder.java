@@ -0,0 +1,272 @@
+package com.fakeping.metrics;
+
+import com.fakeping.FakePingMod;
+import com.fakeping.network.PacketCategory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Records every released packet of a session to disk for later analysis.
+ * 
+ * The release path only puts a fixed-size record into a lock-free {@link RecordRing};
+ * a background thread copies the records into a memory-mapped file, so the packet
+ * path never waits for I/O. If the writer falls behind and the ring fills up,
+ * records are counted as lost instead.
+ * 
+ * A recording is a series of segment files ({@code <name>-000.fprec}, ...) that
+ * are preallocated to {@link #SEGMENT_BYTES} and mapped in one piece. When one is
+ * full the next is started, and only the latest {@link #MAX_SEGMENTS} are kept.
+ * 
+ * Each segment starts with a 256 byte header: magic "FPSR", version, record size,
+ * segment number, wall-clock start of the recording (epoch ms), number of valid
+ * records, and the category ids as a comma-separated list (a short length, then
+ * UTF-8). Records are 32 big-endian bytes:
+ * <pre>
+ *  0 long  queued at, ns since the start of the recording
+ *  8 long  released at, ns since the start of the recording
+ * 16 int   target delay in µs
+ * 20 int   scheduled delay in µs (deadline after ordering and loss)
+ * 24 int   packets queued in both directions at release
+ * 28 byte  category, index into the header's list
+ * 29 byte  flags: 1 inbound, 2 dropped
+ * 30 short reserved
+ * </pre>
+ * {@link SessionAnalyzer} turns recordings into percentiles and a timeline CSV.
+ */
+public class SessionRecorder {
+    public static final String EXTENSION = ".fprec";
+    public static final int MAGIC = 0x46505352; // "FPSR"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 256;
+    public static final int RECORD_BYTES = 32;
+    public static final int COUNT_OFFSET = 24;
+    public static final int CATEGORIES_OFFSET = 32;
+    
+    public static final int FLAG_INBOUND = 1;
+    public static final int FLAG_DROPPED = 2;
+    
+    /** Size of one segment file, about half a million records. */
+    static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+    /** Segments kept per recording; older ones are deleted. */
+    static final int MAX_SEGMENTS = 8;
+    private static final int RING_CAPACITY = 1 << 14;
+    private static final long WRITE_INTERVAL_NANOS = 10_000_000L;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    
+    private final Path directory;
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final long startEpochMillis = System.currentTimeMillis();
+    private final RecordRing ring = new RecordRing(RING_CAPACITY);
+    private final Thread writer;
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private volatile boolean running = true;
+    // Written by the producer, which is serialized by the caller
+    private volatile long lost;
+    
+    // Writer thread only, apart from the constructor
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private long segmentRecords;
+    private volatile long written;
+    private volatile boolean failed;
+    
+    private SessionRecorder(Path directory) throws IOException {
+        this.directory = directory;
+        this.name = "session-" + LocalDateTime.now().format(FILE_TIME);
+        Files.createDirectories(directory);
+        // The first segment is opened here so a failure shows up right away
+        openSegment(0);
+        this.writer = new Thread(this::run, "FakePing-Recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Start a new recording in the given directory.
+     * 
+     * @throws IOException If the first segment can't be created
+     */
+    public static SessionRecorder start(Path directory) throws IOException {
+        return new SessionRecorder(directory);
+    }
+    
+    /**
+     * Record a released or dropped packet. Never blocks; only one thread may call
+     * this at a time. Ignored once the recording was stopped or has failed.
+     * 
+     * @param queuedAt When the packet was queued (System.nanoTime())
+     * @param releasedAt When it was released
+     * @param targetNanos Delay it was meant to get
+     * @param sendTime Deadline the queue assigned
+     * @param depth Packets queued at release
+     */
+    public void record(long queuedAt, long releasedAt, long targetNanos, long sendTime, int depth,
+                       PacketCategory category, boolean inbound, boolean dropped) {
+        if (!running || failed) {
+            // Nobody drains the ring any more; filling it would only count bogus losses
+            return;
+        }
+        int flags = (inbound ? FLAG_INBOUND : 0) | (dropped ? FLAG_DROPPED : 0);
+        if (!ring.offer(queuedAt - startNanos, releasedAt - startNanos, micros(targetNanos),
+                micros(sendTime - queuedAt), depth, category.ordinal(), flags)) {
+            lost++;
+        }
+    }
+    
+    private static int micros(long nanos) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, nanos / 1000));
+    }
+    
+    /**
+     * Stop recording. Returns right away; the writer thread writes out what is
+     * left and closes the file on its own (see {@link #whenClosed}). Records
+     * offered after this are ignored.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(writer);
+    }
+    
+    /**
+     * Completes on the writer thread once the recording was stopped and its last
+     * segment is closed, or writing failed.
+     */
+    public CompletableFuture<Void> whenClosed() {
+        return closed;
+    }
+    
+    private void run() {
+        try {
+            while (running) {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(this, WRITE_INTERVAL_NANOS);
+                }
+            }
+            drain();
+        } catch (IOException e) {
+            FakePingMod.LOGGER.error("Session recording failed", e);
+            failed = true;
+        } finally {
+            closeSegment();
+            closed.complete(null);
+        }
+    }
+    
+    /**
+     * Copy everything in the ring to the file, starting new segments as needed.
+     * 
+     * @return Number of records written
+     */
+    private int drain() throws IOException {
+        int total = 0;
+        while (true) {
+            if (!segment.hasRemaining()) {
+                closeSegment();
+                openSegment(segmentIndex + 1);
+            }
+            int count = ring.drainTo(segment);
+            if (count == 0) {
+                break;
+            }
+            segmentRecords += count;
+            total += count;
+        }
+        if (total > 0) {
+            // Readers only trust records up to the count in the header
+            segment.putLong(COUNT_OFFSET, segmentRecords);
+            written += total;
+        }
+        return total;
+    }
+    
+    private void openSegment(int index) throws IOException {
+        Path path = segmentPath(index);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+        segmentIndex = index;
+        segmentRecords = 0;
+        
+        byte[] ids = Stream.of(PacketCategory.values())
+                .map(PacketCategory::getId)
+                .collect(Collectors.joining(","))
+                .getBytes(StandardCharsets.UTF_8);
+        segment.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(index)
+               .putLong(startEpochMillis).putLong(0)
+               .putShort((short) ids.length).put(ids);
+        segment.position(HEADER_BYTES);
+        
+        if (index >= MAX_SEGMENTS) {
+            try {
+                Files.deleteIfExists(segmentPath(index - MAX_SEGMENTS));
+            } catch (IOException e) {
+                // Windows refuses while the old mapping hasn't been collected yet
+                FakePingMod.LOGGER.warn("Could not delete old recording segment: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Flush the current segment and cut off its unused space.
+     */
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        segment.force();
+        segment = null;
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentIndex), StandardOpenOption.WRITE)) {
+            channel.truncate(HEADER_BYTES + segmentRecords * RECORD_BYTES);
+        } catch (IOException e) {
+            // Not possible on Windows while the file is still mapped; readers go by the header count
+        }
+    }
+    
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format(Locale.ROOT, "%s-%03d%s", name, index, EXTENSION));
+    }
+    
+    /**
+     * Name of the recording, the common prefix of its segment files.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Records written to disk so far.
+     */
+    public long getWritten() {
+        return written;
+    }
+    
+    /**
+     * Records dropped because the writer couldn't keep up.
+     */
+    public long getLost() {
+        return lost;
+    }
+    
+    /**
+     * Whether writing failed; nothing more is recorded after that.
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+}
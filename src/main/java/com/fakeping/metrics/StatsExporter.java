@@ -0,0 +1,121 @@
+package com.fakeping.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes metrics to a CSV and a JSON file on a background thread.
+ * 
+ * The numbers are captured by the caller; only formatting and disk I/O happen
+ * off-thread. Each export gets its own timestamped pair of files so runs can be
+ * compared afterwards. The event-loop numbers are only in the JSON, since they
+ * aren't per category.
+ */
+public class StatsExporter {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String[] HISTOGRAMS = {"target", "applied", "lateness"};
+    
+    private final Path directory;
+    private final Executor executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "FakePing-StatsExporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public StatsExporter(Path directory) {
+        this.directory = directory;
+    }
+    
+    /**
+     * Write the given stats.
+     * 
+     * @return The CSV file, completed once both files are written
+     */
+    public CompletableFuture<Path> export(List<DelayMetrics.CategoryStats> stats, DelayMetrics.ReleaseStats release) {
+        String name = "fakeping-stats-" + LocalDateTime.now().format(FILE_TIME);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Files.createDirectories(directory);
+                Path csv = directory.resolve(name + ".csv");
+                Files.writeString(csv, toCsv(stats));
+                Files.writeString(directory.resolve(name + ".json"), toJson(stats, release));
+                return csv;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+    
+    private static String toCsv(List<DelayMetrics.CategoryStats> stats) {
+        StringBuilder out = new StringBuilder("category,metric,count,p50_ms,p90_ms,p99_ms,max_ms,depth_high_water,packets_per_second\n");
+        for (DelayMetrics.CategoryStats category : stats) {
+            LatencyHistogram.Summary[] summaries = summaries(category);
+            for (int i = 0; i < summaries.length; i++) {
+                LatencyHistogram.Summary summary = summaries[i];
+                out.append(category.category().getId()).append(',')
+                   .append(HISTOGRAMS[i]).append(',')
+                   .append(summary.count()).append(',')
+                   .append(millis(summary.p50())).append(',')
+                   .append(millis(summary.p90())).append(',')
+                   .append(millis(summary.p99())).append(',')
+                   .append(millis(summary.max())).append(',')
+                   .append(category.depthHighWater()).append(',')
+                   .append(String.format(Locale.ROOT, "%.2f", category.packetsPerSecond())).append('\n');
+            }
+        }
+        return out.toString();
+    }
+    
+    private static String toJson(List<DelayMetrics.CategoryStats> stats, DelayMetrics.ReleaseStats release) {
+        JsonArray categories = new JsonArray();
+        for (DelayMetrics.CategoryStats category : stats) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("category", category.category().getId());
+            entry.addProperty("depthHighWater", category.depthHighWater());
+            entry.addProperty("packetsPerSecond", category.packetsPerSecond());
+            LatencyHistogram.Summary[] summaries = summaries(category);
+            for (int i = 0; i < summaries.length; i++) {
+                JsonObject histogram = new JsonObject();
+                histogram.addProperty("count", summaries[i].count());
+                histogram.addProperty("p50Ms", summaries[i].p50() / 1000.0);
+                histogram.addProperty("p90Ms", summaries[i].p90() / 1000.0);
+                histogram.addProperty("p99Ms", summaries[i].p99() / 1000.0);
+                histogram.addProperty("maxMs", summaries[i].max() / 1000.0);
+                entry.add(HISTOGRAMS[i], histogram);
+            }
+            categories.add(entry);
+        }
+        JsonObject eventLoop = new JsonObject();
+        eventLoop.addProperty("tasksPerSecond", release.tasksPerSecond());
+        eventLoop.addProperty("flushesPerSecond", release.flushesPerSecond());
+        eventLoop.addProperty("packetsPerFlush", release.packetsPerFlush());
+        
+        JsonObject root = new JsonObject();
+        root.add("categories", categories);
+        root.add("eventLoop", eventLoop);
+        return GSON.toJson(root);
+    }
+    
+    private static LatencyHistogram.Summary[] summaries(DelayMetrics.CategoryStats category) {
+        return new LatencyHistogram.Summary[] {category.targetDelay(), category.appliedDelay(), category.lateness()};
+    }
+    
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+}
@@ -0,0 +1,17 @@
+package com.fakeping.mixin;
+
+import io.netty.channel.Channel;
+import net.minecraft.network.ClientConnection;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Exposes the Netty channel of a connection, so released packets can be written
+ * as one task on its event loop.
+ */
+@Mixin(ClientConnection.class)
+public interface ClientConnectionAccessor {
+    
+    @Accessor("channel")
+    Channel getChannel();
+}
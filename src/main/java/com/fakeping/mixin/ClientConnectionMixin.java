@@ -1,33 +1,56 @@
 package com.fakeping.mixin;
 
 import com.fakeping.FakePingMod;
+import com.fakeping.config.ConfigSnapshot;
+import com.fakeping.network.DelayedConnection;
+import com.fakeping.network.PacketDelayManager;
+import io.netty.channel.ChannelHandlerContext;
 import net.minecraft.network.ClientConnection;
+import net.minecraft.network.NetworkPhase;
+import net.minecraft.network.listener.PacketListener;
 import net.minecraft.network.packet.Packet;
 import net.minecraft.network.PacketCallbacks;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.jetbrains.annotations.Nullable;
 
 /**
- * Mixin to intercept outgoing packets from the client to the server.
+ * Mixin to intercept packets between the client and the server.
  * 
  * This mixin hooks into the ClientConnection.send() method for Minecraft 1.21+.
  * In 1.21+, the send method signature changed to use PacketCallbacks instead of
  * GenericFutureListener.
  * 
- * IMPORTANT: This only affects client → server packets. Server → client packets
- * are not touched, as delaying those would cause visual desync issues.
+ * Server → client packets are intercepted in channelRead0() on the Netty thread,
+ * but only when the inbound delay is turned on; otherwise that hook returns after
+ * a single config check.
  * 
- * The mixin only activates when connected to an integrated server (singleplayer),
- * ensuring it doesn't interfere with real multiplayer servers.
+ * Each connection carries its own {@link PacketDelayManager} in a field added
+ * here. Only connections to an integrated server (singleplayer) get one, so the
+ * mixin never interferes with real multiplayer servers.
+ * 
+ * Delayed packets are later sent through the three-argument
+ * send(Packet, PacketCallbacks, boolean) overload, which this mixin doesn't hook,
+ * so no recursion guard is needed.
  */
 @Mixin(ClientConnection.class)
-public class ClientConnectionMixin {
+public class ClientConnectionMixin implements DelayedConnection {
+    
+    @Unique
+    private volatile PacketDelayManager fakeping$delayManager;
     
-    // ThreadLocal flag to prevent recursion when we send delayed packets
-    private static final ThreadLocal<Boolean> SENDING_DELAYED_PACKET = ThreadLocal.withInitial(() -> false);
+    @Override
+    public PacketDelayManager fakeping$getDelayManager() {
+        return fakeping$delayManager;
+    }
+    
+    @Override
+    public void fakeping$setDelayManager(PacketDelayManager manager) {
+        fakeping$delayManager = manager;
+    }
     
     /**
      * Intercept the packet send method to add artificial delay.
@@ -46,47 +69,53 @@ public class ClientConnectionMixin {
                              @Nullable PacketCallbacks callbacks,
                              CallbackInfo ci) {
         
-        // Don't intercept if we're already sending a delayed packet (prevents recursion)
-        if (SENDING_DELAYED_PACKET.get()) {
+        // Read the settings once; only delay if fake ping is enabled (cheapest check first)
+        ConfigSnapshot settings = FakePingMod.getConfig().snapshot();
+        if (!settings.enabled()) {
             return;
         }
         
-        // Only apply fake ping in singleplayer (integrated server)
-        if (!isIntegratedServer()) {
+        // Only connections to the integrated server have a manager
+        PacketDelayManager manager = fakeping$delayManager;
+        if (manager == null) {
             return;
         }
         
-        // Only delay if fake ping is enabled
-        if (!FakePingMod.getConfig().isEnabled()) {
-            return;
+        // Queue the packet for delayed sending, and cancel the immediate send if it was queued
+        if (manager.queuePacket(settings, packet, callbacks)) {
+            ci.cancel();
         }
-        
-        // Cancel the immediate send
-        ci.cancel();
-        
-        // Queue the packet for delayed sending
-        ClientConnection self = (ClientConnection) (Object) this;
-        FakePingMod.getPacketDelayManager().queuePacket(packet, () -> {
-            // Set flag to prevent recursion
-            SENDING_DELAYED_PACKET.set(true);
-            try {
-                // Execute the original send when the delay expires
-                self.send(packet, callbacks);
-            } finally {
-                // Always clear the flag
-                SENDING_DELAYED_PACKET.set(false);
-            }
-        });
     }
     
     /**
-     * Helper method to check if we're connected to an integrated server.
-     * This ensures fake ping only works in singleplayer and doesn't affect
-     * real multiplayer servers.
+     * Intercept received packets to add artificial inbound delay.
+     * 
+     * Runs on the Netty event loop, so the disabled path must stay trivial.
+     * Only play-phase packets are delayed; login and configuration are left alone.
      */
-    private boolean isIntegratedServer() {
-        // In Fabric, we can check if the MinecraftClient has an integrated server
-        net.minecraft.client.MinecraftClient client = net.minecraft.client.MinecraftClient.getInstance();
-        return client != null && client.getServer() != null && client.isInSingleplayer();
+    @Inject(method = "channelRead0(Lio/netty/channel/ChannelHandlerContext;Lnet/minecraft/network/packet/Packet;)V",
+            at = @At("HEAD"),
+            cancellable = true)
+    private void onReceivePacket(ChannelHandlerContext context,
+                                 Packet<?> packet,
+                                 CallbackInfo ci) {
+        
+        ConfigSnapshot settings = FakePingMod.getConfig().snapshot();
+        if (!settings.inboundActive()) {
+            return;
+        }
+        
+        PacketDelayManager manager = fakeping$delayManager;
+        if (manager == null) {
+            return;
+        }
+        PacketListener listener = ((ClientConnection) (Object) this).getPacketListener();
+        if (listener == null || listener.getPhase() != NetworkPhase.PLAY) {
+            return;
+        }
+        
+        if (manager.queueInboundPacket(settings, packet, listener)) {
+            ci.cancel();
+        }
     }
 }
@@ -0,0 +1,28 @@
+package com.fakeping.mixin;
+
+import com.fakeping.FakePingMod;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.packet.s2c.query.PingResultS2CPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin to time ping answers for the {@link com.fakeping.network.RttCalibrator}.
+ * 
+ * Hooks where the answer is actually handled rather than where it arrives, so a
+ * delayed answer is timed after its inbound delay, like any gameplay packet.
+ * Answers to the calibrator's own probes stop here, so they don't end up in the
+ * vanilla debug ping chart.
+ */
+@Mixin(ClientPlayNetworkHandler.class)
+public class ClientPlayNetworkHandlerMixin {
+    
+    @Inject(method = "onPingResult", at = @At("HEAD"), cancellable = true)
+    private void onPingResult(PingResultS2CPacket packet, CallbackInfo ci) {
+        if (FakePingMod.getRttCalibrator().onPingResult(packet.startTime())) {
+            ci.cancel();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.fakeping.network;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Added to ClientConnection by {@link com.fakeping.mixin.ClientConnectionMixin}:
+ * the delay manager of that connection, if it has one.
+ * 
+ * Use {@link PacketDelayManager#of} rather than calling this directly.
+ */
+public interface DelayedConnection {
+    
+    @Nullable
+    PacketDelayManager fakeping$getDelayManager();
+    
+    void fakeping$setDelayManager(@Nullable PacketDelayManager manager);
+}
@@ -0,0 +1,44 @@
+package com.fakeping.network;
+
+import com.fakeping.engine.DelayEntry;
+import com.fakeping.engine.DelayPipeline;
+import net.minecraft.network.PacketCallbacks;
+import net.minecraft.network.listener.PacketListener;
+import net.minecraft.network.packet.Packet;
+
+/**
+ * A reusable slot holding a packet waiting in a {@link DelayPipeline}.
+ * 
+ * Slots are handed out by the {@link DelayedPacketPool} and store everything
+ * needed to send (outbound) or handle (inbound) the packet later, so queueing
+ * a packet needs no closure. The connection isn't stored: every slot belongs to
+ * the {@link PacketDelayManager} of one connection.
+ */
+class DelayedPacket extends DelayEntry {
+    Packet<?> packet;
+    PacketCallbacks callbacks;
+    PacketListener listener;
+    PacketCategory category;
+    // Delay the pipeline meant to give it, for the session recording
+    long targetNanos;
+    
+    void set(Packet<?> packet, PacketCallbacks callbacks) {
+        this.packet = packet;
+        this.callbacks = callbacks;
+    }
+    
+    void setInbound(Packet<?> packet, PacketListener listener) {
+        this.packet = packet;
+        this.listener = listener;
+    }
+    
+    /**
+     * Drop all references so a pooled slot doesn't keep packets alive.
+     */
+    void clear() {
+        this.packet = null;
+        this.callbacks = null;
+        this.listener = null;
+        this.category = null;
+    }
+}
@@ -0,0 +1,42 @@
+package com.fakeping.network;
+
+import java.util.Arrays;
+
+/**
+ * Pool of preallocated {@link DelayedPacket} slots.
+ * 
+ * Slots are recycled after their packet has been sent, so at steady state queueing
+ * a packet allocates nothing. The pool only grows (by doubling) if more packets are
+ * in flight at once than ever before.
+ */
+class DelayedPacketPool {
+    private static final int INITIAL_CAPACITY = 256;
+    
+    private DelayedPacket[] free;
+    private int count;
+    
+    DelayedPacketPool() {
+        free = new DelayedPacket[INITIAL_CAPACITY];
+        for (int i = 0; i < INITIAL_CAPACITY; i++) {
+            free[i] = new DelayedPacket();
+        }
+        count = INITIAL_CAPACITY;
+    }
+    
+    synchronized DelayedPacket acquire() {
+        if (count == 0) {
+            return new DelayedPacket();
+        }
+        DelayedPacket slot = free[--count];
+        free[count] = null;
+        return slot;
+    }
+    
+    synchronized void release(DelayedPacket slot) {
+        slot.clear();
+        if (count == free.length) {
+            free = Arrays.copyOf(free, count * 2);
+        }
+        free[count++] = slot;
+    }
+}
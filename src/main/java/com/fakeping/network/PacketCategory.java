@@ -0,0 +1,48 @@
+package com.fakeping.network;
+
+/**
+ * Delay category a packet belongs to. Each category can be toggled on or off.
+ */
+public enum PacketCategory {
+    // Client -> server
+    ATTACKS("attacks", false),
+    MOVEMENT("movement", false),
+    INTERACTIONS("interactions", false),
+    BLOCKS("blocks", false),
+    ITEMS("items", false),
+    
+    // Server -> client
+    ENTITIES("entities", true),
+    KNOCKBACK("knockback", true),
+    COMBAT("combat", true),
+    WORLD("world", true),
+    
+    /** Ping queries and their answers used to measure the real round trip (either direction, always delayed). */
+    PROBE("probe", false),
+    /** Packets listed by id in the config's extra delayed packets (either direction). */
+    CUSTOM("custom", false),
+    /** Packets that are never delayed. */
+    NONE("none", false);
+    
+    private final String id;
+    private final boolean inbound;
+    
+    PacketCategory(String id, boolean inbound) {
+        this.id = id;
+        this.inbound = inbound;
+    }
+    
+    /**
+     * Name used in commands and the config.
+     */
+    public String getId() {
+        return id;
+    }
+    
+    /**
+     * Whether this is a server -> client category.
+     */
+    public boolean isInbound() {
+        return inbound;
+    }
+}
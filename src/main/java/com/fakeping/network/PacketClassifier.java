@@ -0,0 +1,189 @@
+package com.fakeping.network;
+
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.c2s.play.*;
+import net.minecraft.network.packet.c2s.query.QueryPingC2SPacket;
+import net.minecraft.network.packet.s2c.play.*;
+import net.minecraft.network.packet.s2c.query.PingResultS2CPacket;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps packet classes to their {@link PacketCategory} and estimated size.
+ * 
+ * Lookups go through an identity map keyed on the packet class, so classifying
+ * a packet is a single hash lookup instead of a chain of instanceof checks. A
+ * class is resolved the first time it is seen and the result is published as a
+ * new copy of the table, so readers never lock.
+ * 
+ * Any packet can be delayed by listing its packet id (e.g. "minecraft:keep_alive")
+ * in the config; those resolve to {@link PacketCategory#CUSTOM}. The table is
+ * rebuilt whenever the config changes.
+ * 
+ * Sizes are typical encoded sizes per packet class (payload plus frame header),
+ * good enough for the bandwidth simulation without re-encoding every packet.
+ */
+public class PacketClassifier {
+    /** Length prefix and packet id in front of every payload. */
+    private static final int FRAME_BYTES = 3;
+    /** Used for packets we don't have a better estimate for. */
+    private static final int DEFAULT_PAYLOAD_BYTES = 32;
+    
+    private volatile Table table;
+    
+    public PacketClassifier(Collection<String> extraIds) {
+        rebuild(extraIds);
+    }
+    
+    /**
+     * Drop all cached classifications and switch to a new set of extra packet ids.
+     */
+    public void rebuild(Collection<String> extraIds) {
+        table = new Table(Set.copyOf(extraIds), new IdentityHashMap<>());
+    }
+    
+    /**
+     * Get the category and estimated size of a packet.
+     */
+    public PacketClass lookup(Packet<?> packet) {
+        Table current = table;
+        PacketClass info = current.classes.get(packet.getClass());
+        return info != null ? info : resolve(current, packet);
+    }
+    
+    /**
+     * Get the delay category of a packet.
+     */
+    public PacketCategory classify(Packet<?> packet) {
+        return lookup(packet).category();
+    }
+    
+    private synchronized PacketClass resolve(Table current, Packet<?> packet) {
+        PacketClass info = new PacketClass(categorize(packet, current.extraIds), FRAME_BYTES + estimatePayload(packet));
+        
+        // Copy-on-write so concurrent readers keep using the old table; if the table
+        // was rebuilt meanwhile the entry is simply resolved again on the next lookup
+        if (table == current) {
+            Map<Class<?>, PacketClass> classes = new IdentityHashMap<>(current.classes);
+            classes.put(packet.getClass(), info);
+            table = new Table(current.extraIds, classes);
+        }
+        return info;
+    }
+    
+    private static PacketCategory categorize(Packet<?> packet, Set<String> extraIds) {
+        // Attack packets
+        if (packet instanceof PlayerInteractEntityC2SPacket) {
+            return PacketCategory.ATTACKS;
+        }
+        
+        // Movement packets
+        if (packet instanceof PlayerMoveC2SPacket) {
+            return PacketCategory.MOVEMENT;
+        }
+        
+        // Hand swing and interaction packets
+        if (packet instanceof HandSwingC2SPacket || packet instanceof PlayerInteractBlockC2SPacket) {
+            return PacketCategory.INTERACTIONS;
+        }
+        
+        // Block breaking packets
+        if (packet instanceof PlayerActionC2SPacket) {
+            return PacketCategory.BLOCKS;
+        }
+        
+        // Item use packets
+        if (packet instanceof PlayerInteractItemC2SPacket) {
+            return PacketCategory.ITEMS;
+        }
+        
+        // Inbound: entity positions and rotations
+        if (packet instanceof EntityS2CPacket || packet instanceof EntityPositionS2CPacket
+                || packet instanceof EntityPositionSyncS2CPacket || packet instanceof EntitySetHeadYawS2CPacket) {
+            return PacketCategory.ENTITIES;
+        }
+        
+        // Inbound: velocity and position corrections applied to the player
+        if (packet instanceof EntityVelocityUpdateS2CPacket || packet instanceof ExplosionS2CPacket
+                || packet instanceof PlayerPositionLookS2CPacket) {
+            return PacketCategory.KNOCKBACK;
+        }
+        
+        // Inbound: hits, damage and health
+        if (packet instanceof EntityDamageS2CPacket || packet instanceof EntityStatusS2CPacket
+                || packet instanceof HealthUpdateS2CPacket || packet instanceof EntityAnimationS2CPacket) {
+            return PacketCategory.COMBAT;
+        }
+        
+        // Inbound: block changes
+        if (packet instanceof BlockUpdateS2CPacket || packet instanceof ChunkDeltaUpdateS2CPacket
+                || packet instanceof BlockBreakingProgressS2CPacket) {
+            return PacketCategory.WORLD;
+        }
+        
+        // Round-trip probes, delayed like gameplay packets so they measure what the player gets
+        if (packet instanceof QueryPingC2SPacket || packet instanceof PingResultS2CPacket) {
+            return PacketCategory.PROBE;
+        }
+        
+        // Anything else the user asked for by packet id
+        if (!extraIds.isEmpty() && extraIds.contains(packet.getPacketId().id().toString())) {
+            return PacketCategory.CUSTOM;
+        }
+        
+        return PacketCategory.NONE;
+    }
+    
+    private static int estimatePayload(Packet<?> packet) {
+        // Movement packets dominate traffic, so they get per-variant sizes
+        if (packet instanceof PlayerMoveC2SPacket.Full) {
+            return 33;
+        }
+        if (packet instanceof PlayerMoveC2SPacket.PositionAndOnGround) {
+            return 25;
+        }
+        if (packet instanceof PlayerMoveC2SPacket.LookAndOnGround) {
+            return 9;
+        }
+        if (packet instanceof PlayerMoveC2SPacket) {
+            return 1;
+        }
+        if (packet instanceof HandSwingC2SPacket || packet instanceof EntityAnimationS2CPacket
+                || packet instanceof EntityStatusS2CPacket) {
+            return 5;
+        }
+        if (packet instanceof PlayerInteractEntityC2SPacket || packet instanceof EntityS2CPacket
+                || packet instanceof EntityDamageS2CPacket || packet instanceof HealthUpdateS2CPacket) {
+            return 10;
+        }
+        if (packet instanceof PlayerActionC2SPacket || packet instanceof PlayerInteractItemC2SPacket
+                || packet instanceof EntityVelocityUpdateS2CPacket || packet instanceof BlockUpdateS2CPacket
+                || packet instanceof BlockBreakingProgressS2CPacket) {
+            return 14;
+        }
+        if (packet instanceof PlayerInteractBlockC2SPacket) {
+            return 22;
+        }
+        if (packet instanceof EntityPositionS2CPacket || packet instanceof EntityPositionSyncS2CPacket
+                || packet instanceof PlayerPositionLookS2CPacket || packet instanceof ExplosionS2CPacket
+                || packet instanceof ChunkDeltaUpdateS2CPacket) {
+            return 64;
+        }
+        return DEFAULT_PAYLOAD_BYTES;
+    }
+    
+    /**
+     * What the classifier knows about a packet class.
+     * 
+     * @param category Delay category
+     * @param estimatedBytes Typical encoded size including the frame header
+     */
+    public record PacketClass(PacketCategory category, int estimatedBytes) {
+    }
+    
+    private record Table(Set<String> extraIds, Map<Class<?>, PacketClass> classes) {
+    }
+}
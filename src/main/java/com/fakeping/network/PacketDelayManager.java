@@ -1,160 +1,867 @@
 package com.fakeping.network;
 
 import com.fakeping.FakePingMod;
+import com.fakeping.config.CategoryDelay;
+import com.fakeping.config.ConfigSnapshot;
+import com.fakeping.config.DrainMode;
 import com.fakeping.config.FakePingConfig;
+import com.fakeping.config.LatencyModelType;
+import com.fakeping.config.OverflowPolicy;
+import com.fakeping.config.ReleaseMode;
+import com.fakeping.engine.Clock;
+import com.fakeping.engine.DelayParams;
+import com.fakeping.engine.DelayPipeline;
+import com.fakeping.latency.LatencyModel;
+import com.fakeping.latency.LatencyTimeline;
+import com.fakeping.latency.LatencyTrace;
+import com.fakeping.latency.TimelineLatencyModel;
+import com.fakeping.latency.TraceLatencyModel;
+import com.fakeping.metrics.DelayHistory;
+import com.fakeping.metrics.DelayMetrics;
+import com.fakeping.metrics.SessionRecorder;
+import com.fakeping.mixin.ClientConnectionAccessor;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.network.PacketCallbacks;
+import net.minecraft.network.listener.PacketListener;
 import net.minecraft.network.packet.Packet;
-import net.minecraft.network.packet.c2s.play.*;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Core packet delay management system.
+ * Connects one connection to the delay engine.
  * 
- * This class maintains a thread-safe queue of packets that need to be delayed.
- * Each packet is stored with a timestamp indicating when it should be sent.
+ * Every connection to the integrated server gets its own manager ({@link #open},
+ * {@link #of}), holding that session's queues, metrics and recording. The manager
+ * classifies packets, feeds them into a {@link DelayPipeline} per direction, and
+ * sends or applies them once they are due; the pipelines do the actual delay
+ * modelling. Due outbound packets are written as one {@link SendBatch} on the
+ * connection's event loop, due inbound packets are applied on the client thread.
+ * The shared {@link ReleaseScheduler} thread, or the client tick in
+ * {@link ReleaseMode#TICK} mode, decides when to release.
  * 
- * The tick() method is called every client tick to check if any packets are
- * ready to be sent, maintaining temporal ordering while simulating network latency.
+ * Queued packets live in pooled {@link DelayedPacket} slots, so the per-packet
+ * path doesn't allocate once the pool has warmed up.
+ * 
+ * Playback state belongs to the session as well: a new connection starts without
+ * a timeline or calibration correction, and replays the configured trace from its
+ * beginning once it has loaded in the background. Config changes, commands and the calibrator change the models from
+ * different threads, so that state is guarded by the manager's lock.
  */
 public class PacketDelayManager {
+    /** Longest a drain may take, whatever the packets' original deadlines were. */
+    private static final long MAX_DRAIN_NANOS = 1_000_000_000L;
+    // Shift values for DelayPipeline.drain
+    private static final long SEND_NOW = DelayPipeline.SEND_NOW;
+    private static final long KEEP_DEADLINES = 0;
+    private static final long UNCHANGED = Long.MAX_VALUE;
+    /** Most queued packets evicted to make room for one new packet. */
+    private static final int MAX_EVICTIONS = 8;
+    
     private final FakePingConfig config;
-    private final ConcurrentLinkedQueue<DelayedPacket> packetQueue;
-    private final Random random;
+    private final ClientConnection connection;
+    // The channel's event loop, which never changes once the channel is registered
+    private final Executor eventLoop;
+    private final Runnable configListener = this::onConfigChanged;
+    private final DelayPipeline<DelayedPacket> outbound;
+    private final DelayPipeline<DelayedPacket> inbound;
+    // Due inbound packets waiting for the client thread, guarded by itself
+    private final ArrayDeque<DelayedPacket> inboundReady = new ArrayDeque<>();
+    private final Runnable applyInboundTask = this::applyInbound;
+    // Reusable outbound send batches, guarded by itself
+    private final ArrayDeque<SendBatch> freeBatches = new ArrayDeque<>();
+    private boolean applyInboundScheduled;
+    private final DelayedPacketPool slotPool;
+    private final PacketClassifier classifier;
+    // Extra packet ids the classifier was last built with, and the model state below,
+    // guarded by this
+    private List<String> classifiedIds;
+    // One model per direction since burst/random-walk models carry state
+    private LatencyModelType modelType;
+    private LatencyModel syntheticModel;
+    // Model type of each outbound lane that has its own model, null for the others
+    private final LatencyModelType[] laneModelTypes = new LatencyModelType[ConfigSnapshot.LANES];
+    // Replayed trace, null if none is configured, it is still loading or it failed to load
+    private String traceKey;
+    private TraceLatencyModel traceModel;
+    // Timeline being played, null if none; not part of the saved config
+    private LatencyTimeline timeline;
+    private long timelineStart;
+    private boolean timelineLoop;
+    private volatile String timelineName;
+    private volatile TimelineLatencyModel timelineModel;
+    // Correction from the RttCalibrator, given to the lanes that use the base delay
+    private int calibrationOffsetMs;
+    private final ReleaseScheduler scheduler;
+    // Until when the release thread leaves this manager alone after releaseDue
+    // threw; release thread only
+    long releaseBackoffUntil = Long.MIN_VALUE;
+    // Settings the queues were last drained against
+    private ConfigSnapshot appliedSettings;
+    private final DelayMetrics metrics = new DelayMetrics();
+    // Written under the releaseDue lock only
+    private final DelayHistory history = new DelayHistory();
+    // Only fed under the release lock, which keeps it to one producer at a time
+    private volatile SessionRecorder recorder;
     
-    public PacketDelayManager(FakePingConfig config) {
+    /**
+     * Not attached to the connection or registered with the scheduler; see {@link #open}.
+     * 
+     * @param eventLoop Executor released packets are written on
+     */
+    PacketDelayManager(FakePingConfig config, ReleaseScheduler scheduler, ClientConnection connection, 
+                       Executor eventLoop) {
         this.config = config;
-        this.packetQueue = new ConcurrentLinkedQueue<>();
-        this.random = new Random();
+        this.scheduler = scheduler;
+        this.connection = connection;
+        this.eventLoop = eventLoop;
+        this.outbound = new DelayPipeline<>(Clock.SYSTEM, null, LatencyModel.create(config.getLatencyModel()), 
+                this::onScheduled, ConfigSnapshot.LANES);
+        this.inbound = new DelayPipeline<>(Clock.SYSTEM, null, LatencyModel.create(config.getLatencyModel()), this::onScheduled);
+        this.slotPool = new DelayedPacketPool();
+        this.classifiedIds = config.getExtraDelayedPackets();
+        this.classifier = new PacketClassifier(classifiedIds);
+        this.appliedSettings = config.snapshot();
+        updateLatencyModel();
+        updateBandwidth();
+        updateLoss();
+    }
+    
+    /**
+     * Give a connection its delay manager and start releasing its packets. A
+     * connection that already has one (back in play after reconfiguring) keeps it.
+     * 
+     * @return The connection's manager
+     */
+    public static PacketDelayManager open(FakePingConfig config, ReleaseScheduler scheduler, 
+                                          ClientConnection connection) {
+        PacketDelayManager manager = of(connection);
+        if (manager == null) {
+            manager = new PacketDelayManager(config, scheduler, connection, 
+                    ((ClientConnectionAccessor) connection).getChannel().eventLoop());
+            config.addChangeListener(manager.configListener);
+            scheduler.register(manager);
+            ((DelayedConnection) connection).fakeping$setDelayManager(manager);
+        }
+        return manager;
+    }
+    
+    /**
+     * The delay manager of a connection, or null if it has none (not connected to
+     * the integrated server, or not in the play phase yet).
+     */
+    @Nullable
+    public static PacketDelayManager of(ClientConnection connection) {
+        return ((DelayedConnection) connection).fakeping$getDelayManager();
+    }
+    
+    /**
+     * Called when the connection is left. Detaches the manager, sends everything
+     * still queued right away (or drops it if the connection is already closed)
+     * and stops the recording.
+     */
+    public void close() {
+        ((DelayedConnection) connection).fakeping$setDelayManager(null);
+        config.removeChangeListener(configListener);
+        scheduler.unregister(this);
+        
+        ConfigSnapshot settings = config.snapshot();
+        outbound.drain(SEND_NOW, 0, settings.outboundParams());
+        inbound.drain(SEND_NOW, 0, settings.inboundParams());
+        releaseDue(System.nanoTime());
+        stopRecording();
+    }
+    
+    /**
+     * The connection this manager delays packets for.
+     */
+    ClientConnection getConnection() {
+        return connection;
     }
     
     /**
      * Queue a packet for delayed sending.
      * 
+     * @param settings Config snapshot read once by the caller for this packet
      * @param packet The packet to delay
-     * @param sendAction The action to execute when the delay expires
+     * @param callbacks Callbacks to pass on when the packet is actually sent (can be null)
+     * @return true if the packet was queued, false if it should be sent immediately
      */
-    public void queuePacket(Packet<?> packet, Runnable sendAction) {
-        if (!config.isEnabled() || !shouldDelayPacket(packet)) {
-            // If fake ping is disabled or this packet type shouldn't be delayed,
-            // send it immediately
-            sendAction.run();
-            return;
+    public boolean queuePacket(ConfigSnapshot settings, Packet<?> packet, @Nullable PacketCallbacks callbacks) {
+        if (!settings.enabled()) {
+            return false;
+        }
+        PacketClassifier.PacketClass info = classifier.lookup(packet);
+        if (!settings.delays(info.category())) {
+            // This packet type shouldn't be delayed, let the caller send it immediately
+            return false;
         }
         
-        // Calculate delay with jitter
-        int delay = calculateDelay();
-        long sendTime = System.currentTimeMillis() + delay;
-        
-        packetQueue.offer(new DelayedPacket(packet, sendAction, sendTime));
+        DelayedPacket slot = slotPool.acquire();
+        slot.set(packet, callbacks);
+        slot.category = info.category();
+        slot.setEvictable(info.category() == PacketCategory.MOVEMENT);
+        return enqueue(settings, outbound, settings.outboundParams(info.category()), slot, info.estimatedBytes());
+    }
+    
+    /**
+     * Queue a received packet for delayed handling.
+     * 
+     * @param settings Config snapshot read once by the caller for this packet
+     * @param packet The received packet
+     * @param listener The listener that would have handled it
+     * @return true if the packet was queued, false if it should be handled immediately
+     */
+    public boolean queueInboundPacket(ConfigSnapshot settings, Packet<?> packet, PacketListener listener) {
+        if (!settings.inboundActive()) {
+            return false;
+        }
+        PacketClassifier.PacketClass info = classifier.lookup(packet);
+        if (!settings.delays(info.category())) {
+            return false;
+        }
         
-        FakePingMod.LOGGER.debug("Queued packet {} with delay {}ms", 
-                packet.getClass().getSimpleName(), delay);
+        DelayedPacket slot = slotPool.acquire();
+        slot.setInbound(packet, listener);
+        slot.category = info.category();
+        slot.setEvictable(false);
+        return enqueue(settings, inbound, settings.inboundParams(), slot, info.estimatedBytes());
     }
     
     /**
-     * Process the packet queue and send any packets whose time has come.
-     * Called every client tick.
+     * Offer a packet to a pipeline, applying the overflow policy if it is full.
+     * 
+     * @return false if the packet should be sent or handled without delay after all
      */
-    public void tick() {
-        long currentTime = System.currentTimeMillis();
+    private boolean enqueue(ConfigSnapshot settings, DelayPipeline<DelayedPacket> pipeline, DelayParams params,
+                            DelayedPacket slot, int bytes) {
+        long wakeup = pipeline.offer(slot, bytes, params);
+        if (wakeup == DelayPipeline.REJECTED && slot.category == PacketCategory.PROBE) {
+            // Dropping or bypassing a probe would skew the RTT it measures; it is tiny anyway
+            wakeup = pipeline.offer(slot, bytes, withoutLimits(params));
+        }
+        if (wakeup == DelayPipeline.REJECTED && settings.overflowPolicy() == OverflowPolicy.DROP_OLDEST_MOVEMENT) {
+            wakeup = evictAndOffer(pipeline, params, slot, bytes);
+        }
+        if (wakeup == DelayPipeline.REJECTED) {
+            if (settings.overflowPolicy() == OverflowPolicy.BYPASS) {
+                slotPool.release(slot);
+                metrics.recordOverflowBypassed();
+                return false;
+            }
+            metrics.recordOverflowDropped();
+            drop(slot, pipeline == inbound, false);
+            return true;
+        }
+        
+        if (settings.releaseMode() != ReleaseMode.TICK) {
+            scheduler.wakeup(wakeup);
+        }
         
-        // Process all packets that are ready to be sent
-        while (!packetQueue.isEmpty()) {
-            DelayedPacket delayedPacket = packetQueue.peek();
+        if (FakePingMod.LOGGER.isDebugEnabled()) {
+            FakePingMod.LOGGER.debug("Queued packet {} until {}", 
+                    slot.packet.getClass().getSimpleName(), wakeup);
+        }
+        return true;
+    }
+    
+    private static DelayParams withoutLimits(DelayParams params) {
+        return new DelayParams(params.baseMs(), params.jitterMs(), params.preserveOrder(), params.retransmitNanos(), 
+                params.coalesceWindowMs(), params.coalesceBytes(), 0, 0, params.lane(), params.sharedOrder());
+    }
+    
+    /**
+     * Drop the oldest queued movement packets until the new packet fits. A large
+     * packet may need several small ones to go, but never more than {@link #MAX_EVICTIONS}.
+     * 
+     * @return Result of the successful offer, or {@link DelayPipeline#REJECTED}
+     */
+    private long evictAndOffer(DelayPipeline<DelayedPacket> pipeline, DelayParams params, 
+                               DelayedPacket slot, int bytes) {
+        for (int i = 0; i < MAX_EVICTIONS; i++) {
+            DelayedPacket victim = pipeline.evictOldest();
+            if (victim == null) {
+                break;
+            }
+            metrics.recordEvicted(victim.category);
+            drop(victim, pipeline == inbound, true);
             
-            if (delayedPacket != null && delayedPacket.sendTime <= currentTime) {
-                packetQueue.poll();
-                
-                try {
-                    delayedPacket.sendAction.run();
-                    FakePingMod.LOGGER.debug("Sent delayed packet: {}", 
-                            delayedPacket.packet.getClass().getSimpleName());
-                } catch (Exception e) {
-                    FakePingMod.LOGGER.error("Error sending delayed packet", e);
+            long wakeup = pipeline.offer(slot, bytes, params);
+            if (wakeup != DelayPipeline.REJECTED) {
+                return wakeup;
+            }
+        }
+        return DelayPipeline.REJECTED;
+    }
+    
+    /**
+     * Throw away a packet that overflowed or was evicted: fail its callbacks, add
+     * it to the recording as dropped and return its slot to the pool.
+     * 
+     * @param queued Whether it was taken from the queue, rather than turned away on arrival
+     */
+    private void drop(DelayedPacket slot, boolean received, boolean queued) {
+        fail(slot);
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) {
+            long now = System.nanoTime();
+            // The release lock keeps the recorder to one producer at a time
+            synchronized (this) {
+                int depth = outbound.size() + inbound.size();
+                if (queued) {
+                    record(recorder, slot, now, depth, received, true);
+                } else {
+                    recorder.record(now, now, 0, now, depth, slot.category, received, true);
                 }
-            } else {
-                // Packets are ordered by time, so if this one isn't ready, neither are the rest
-                break;
             }
         }
+        slotPool.release(slot);
     }
     
     /**
-     * Determine if a packet should be delayed based on its type and configuration.
+     * Complete the callbacks of a packet that won't be sent the way ClientConnection
+     * does when a write fails: send the packet they offer in its place, if any.
      */
-    private boolean shouldDelayPacket(Packet<?> packet) {
-        // Attack packets
-        if (packet instanceof PlayerInteractEntityC2SPacket) {
-            return config.shouldDelayAttacks();
+    void fail(DelayedPacket slot) {
+        PacketCallbacks callbacks = slot.callbacks;
+        if (callbacks == null || !connection.isOpen()) {
+            return;
+        }
+        Packet<?> failurePacket = callbacks.getFailurePacket();
+        if (failurePacket != null) {
+            // Not intercepted by ClientConnectionMixin, so it goes out undelayed
+            connection.send(failurePacket, null, true);
         }
+    }
+    
+    /**
+     * Pipeline callback: a packet got its deadline.
+     */
+    private void onScheduled(DelayedPacket slot, long targetNanos) {
+        metrics.recordQueued(slot.category, targetNanos);
+        slot.targetNanos = targetNanos;
+    }
+    
+    /**
+     * Release queued packets from the client tick.
+     * Only does anything in {@link ReleaseMode#TICK} mode; otherwise the release thread handles it.
+     */
+    public void tick() {
+        if (!usesScheduler()) {
+            releaseDue(System.nanoTime());
+        }
+    }
+    
+    /**
+     * Send every packet whose deadline has passed.
+     * 
+     * @param now Current System.nanoTime()
+     * @return Deadline of the next queued packet, or {@link DelayPipeline#IDLE} if the queue is empty
+     */
+    public synchronized long releaseDue(long now) {
+        outbound.closeGroupIfDue(now, config.snapshot().outboundParams());
+        int depth = outbound.size() + inbound.size();
+        SessionRecorder recorder = this.recorder;
+        releaseInbound(now, depth, recorder);
         
-        // Movement packets
-        if (packet instanceof PlayerMoveC2SPacket) {
-            return config.shouldDelayMovement();
+        // Process all packets that are ready to be sent, earliest deadline first.
+        // They all go out as one event-loop task.
+        boolean open = connection.isOpen();
+        SendBatch batch = null;
+        DelayedPacket delayedPacket;
+        while ((delayedPacket = outbound.pollDue(now)) != null) {
+            if (!open) {
+                // A closed connection would just hold on to the packet forever
+                metrics.recordDropped(delayedPacket.category);
+                if (recorder != null) {
+                    record(recorder, delayedPacket, now, depth, false, true);
+                }
+                slotPool.release(delayedPacket);
+                continue;
+            }
+            if (batch == null) {
+                batch = acquireBatch();
+            }
+            batch.add(delayedPacket);
+            history.record(now, now - delayedPacket.getQueuedAt(), depth);
+            if (recorder != null) {
+                record(recorder, delayedPacket, now, depth, false, false);
+            }
+            
+            if (FakePingMod.LOGGER.isDebugEnabled()) {
+                FakePingMod.LOGGER.debug("Released delayed packet: {}", 
+                        delayedPacket.packet.getClass().getSimpleName());
+            }
+        }
+        if (batch != null) {
+            submit(batch);
+        }
+        return nextDeadline();
+    }
+    
+    /**
+     * Add a released or dropped packet to the session recording.
+     */
+    private static void record(SessionRecorder recorder, DelayedPacket delayedPacket, long now, int depth, 
+                               boolean inbound, boolean dropped) {
+        recorder.record(delayedPacket.getQueuedAt(), now, delayedPacket.targetNanos, delayedPacket.getSendTime(), 
+                depth, delayedPacket.category, inbound, dropped);
+    }
+    
+    /**
+     * Hand a batch to the connection's event loop.
+     */
+    private void submit(SendBatch batch) {
+        try {
+            eventLoop.execute(batch);
+            metrics.recordEventLoopTask();
+        } catch (RejectedExecutionException e) {
+            // The event loop is shutting down along with the connection
+            for (int i = 0; i < batch.count; i++) {
+                metrics.recordDropped(batch.packets[i].category);
+                fail(batch.packets[i]);
+            }
+            recycle(batch);
+        }
+    }
+    
+    private SendBatch acquireBatch() {
+        SendBatch batch;
+        synchronized (freeBatches) {
+            batch = freeBatches.pollFirst();
+        }
+        return batch != null ? batch : new SendBatch(this);
+    }
+    
+    /**
+     * Return a finished batch and its packet slots to their pools. Called on the event loop.
+     */
+    void recycle(SendBatch batch) {
+        for (int i = 0; i < batch.count; i++) {
+            slotPool.release(batch.packets[i]);
+        }
+        batch.clear();
+        synchronized (freeBatches) {
+            freeBatches.addLast(batch);
+        }
+    }
+    
+    /**
+     * Move due inbound packets to the client thread, keeping their order.
+     */
+    private void releaseInbound(long now, int depth, SessionRecorder recorder) {
+        DelayedPacket delayedPacket = inbound.pollDue(now);
+        if (delayedPacket == null) {
+            return;
         }
         
-        // Hand swing and interaction packets
-        if (packet instanceof HandSwingC2SPacket || packet instanceof PlayerInteractBlockC2SPacket) {
-            return config.shouldDelayInteractions();
+        boolean schedule;
+        synchronized (inboundReady) {
+            do {
+                // Recorded at hand-off since the client thread applying it doesn't hold the release lock
+                history.record(now, now - delayedPacket.getQueuedAt(), depth);
+                if (recorder != null) {
+                    record(recorder, delayedPacket, now, depth, true, false);
+                }
+                inboundReady.addLast(delayedPacket);
+            } while ((delayedPacket = inbound.pollDue(now)) != null);
+            schedule = !applyInboundScheduled;
+            applyInboundScheduled = true;
         }
         
-        // Block breaking packets
-        if (packet instanceof PlayerActionC2SPacket) {
-            return config.shouldDelayBlockBreaking();
+        if (schedule) {
+            MinecraftClient.getInstance().execute(applyInboundTask);
+        }
+    }
+    
+    /**
+     * Handle released inbound packets. Runs on the client thread.
+     */
+    @SuppressWarnings("unchecked")
+    private void applyInbound() {
+        while (true) {
+            DelayedPacket delayedPacket;
+            synchronized (inboundReady) {
+                delayedPacket = inboundReady.pollFirst();
+                if (delayedPacket == null) {
+                    applyInboundScheduled = false;
+                    return;
+                }
+            }
+            
+            try {
+                // Drop packets for a connection that closed or moved on to another phase meanwhile
+                if (connection.isOpen() && connection.getPacketListener() == delayedPacket.listener) {
+                    ((Packet<PacketListener>) delayedPacket.packet).apply(delayedPacket.listener);
+                    metrics.recordReleased(delayedPacket.category, delayedPacket.getQueuedAt(), 
+                            delayedPacket.getSendTime(), System.nanoTime());
+                } else {
+                    metrics.recordDropped(delayedPacket.category);
+                }
+            } catch (Exception e) {
+                FakePingMod.LOGGER.error("Error handling delayed packet", e);
+                metrics.recordDropped(delayedPacket.category);
+            } finally {
+                slotPool.release(delayedPacket);
+            }
+        }
+    }
+    
+    /**
+     * Follow a settings change.
+     */
+    private synchronized void onConfigChanged() {
+        // Most changes leave the packet list alone; keep the resolved classes then
+        List<String> extraIds = config.getExtraDelayedPackets();
+        if (!extraIds.equals(classifiedIds)) {
+            classifier.rebuild(extraIds);
+            classifiedIds = extraIds;
         }
+        updateLatencyModel();
+        applyCalibrationOffset(config.snapshot());
+        updateBandwidth();
+        updateLoss();
+        drainOnChange();
+    }
+    
+    /**
+     * Drain the queues when fake ping was turned off or a delay changed.
+     */
+    private void drainOnChange() {
+        ConfigSnapshot settings = config.snapshot();
+        ConfigSnapshot previous = appliedSettings;
+        appliedSettings = settings;
         
-        // Item use packets
-        if (packet instanceof PlayerInteractItemC2SPacket) {
-            return config.shouldDelayItemUse();
+        // A preset switch changes several settings at once and has its own drain mode
+        boolean presetSwitch = !Objects.equals(settings.presetName(), previous.presetName());
+        DrainMode mode = presetSwitch ? settings.presetDrainMode() : settings.drainMode();
+        long outboundShift = drainShift(mode, previous.enabled(), settings.enabled(), 
+                previous.baseDelayMs(), settings.baseDelayMs());
+        long inboundShift = drainShift(mode, previous.inboundActive(), settings.inboundActive(), 
+                previous.inboundDelayMs(), settings.inboundDelayMs());
+        if (outboundShift != UNCHANGED || inboundShift != UNCHANGED) {
+            drain(settings, outboundShift, inboundShift);
+        }
+    }
+    
+    /**
+     * How to move the queued deadlines of one direction after a settings change.
+     */
+    private static long drainShift(DrainMode mode, boolean wasActive, boolean active, int oldDelayMs, int newDelayMs) {
+        if (wasActive && !active) {
+            return mode == DrainMode.DEADLINE ? KEEP_DEADLINES : SEND_NOW;
+        }
+        if (!active || oldDelayMs == newDelayMs) {
+            return UNCHANGED;
+        }
+        return switch (mode) {
+            case FLUSH -> SEND_NOW;
+            case DEADLINE -> UNCHANGED;
+            case RETIME -> (newDelayMs - oldDelayMs) * 1_000_000L;
+        };
+    }
+    
+    /**
+     * Re-time the queued packets, bounded by {@link #MAX_DRAIN_NANOS}, and let the
+     * release scheduler send them. In tick mode whatever is due now goes out here.
+     */
+    private void drain(ConfigSnapshot settings, long outboundShift, long inboundShift) {
+        if (outboundShift != UNCHANGED) {
+            outbound.drain(outboundShift, MAX_DRAIN_NANOS, settings.outboundParams());
+        }
+        if (inboundShift != UNCHANGED) {
+            inbound.drain(inboundShift, MAX_DRAIN_NANOS, settings.inboundParams());
         }
         
-        // Don't delay other packet types by default
-        return false;
+        if (usesScheduler()) {
+            scheduler.wakeup(Long.MIN_VALUE);
+        } else {
+            releaseDue(System.nanoTime());
+        }
     }
     
     /**
-     * Calculate the delay for a packet, including base delay and random jitter.
+     * Deadline of the earliest queued packet, or {@link DelayPipeline#IDLE} if empty.
      */
-    private int calculateDelay() {
-        int baseDelay = config.getBaseDelayMs();
-        int jitter = config.getJitterMs();
+    long nextDeadline() {
+        return Math.min(outbound.nextDeadline(), inbound.nextDeadline());
+    }
+    
+    /**
+     * Whether packets are released by the release thread rather than the client tick.
+     */
+    boolean usesScheduler() {
+        return config.getReleaseMode() != ReleaseMode.TICK;
+    }
+    
+    /**
+     * Recreate the latency models if the configured type or trace changed. Caller
+     * holds the lock, apart from the constructor.
+     */
+    private void updateLatencyModel() {
+        ConfigSnapshot settings = config.snapshot();
+        LatencyModelType type = settings.latencyModel();
+        if (type != modelType) {
+            syntheticModel = LatencyModel.create(type);
+            inbound.setLatencyModel(LatencyModel.create(type));
+            modelType = type;
+        }
         
-        if (jitter > 0) {
-            // Add random jitter: ±jitter milliseconds
-            int randomJitter = random.nextInt(jitter * 2 + 1) - jitter;
-            return Math.max(0, baseDelay + randomJitter);
+        // Speed and looping are applied to the playing trace, which keeps its position
+        String key = settings.traceName();
+        if (!key.equals(traceKey)) {
+            traceModel = null;
+            traceKey = key;
+            if (settings.usesTrace()) {
+                loadTrace(key);
+            }
+        } else if (traceModel != null) {
+            traceModel.setPlayback(settings.traceTimeScale(), settings.traceLoop(),
+                    outbound.getClock().nanoTime());
+        }
+        LatencyModel model = traceModel != null ? traceModel : syntheticModel;
+        if (timeline != null && traceModel == null) {
+            // Keeps the playback position when the model type changes mid-timeline
+            timelineModel = new TimelineLatencyModel(timeline, model, timelineStart, timelineLoop);
+            model = timelineModel;
+        } else {
+            timelineModel = null;
         }
+        outbound.setLatencyModel(model);
         
-        return baseDelay;
+        // Categories with their own delay or model get their own model, so a trace or
+        // timeline on the default lane doesn't override their delay
+        for (PacketCategory category : ConfigSnapshot.LANE_CATEGORIES) {
+            CategoryDelay delay = settings.categoryDelay(category);
+            LatencyModelType laneType = !delay.hasOwnModel() ? null 
+                    : delay.model() != null ? delay.model() : type;
+            int lane = ConfigSnapshot.laneOf(category);
+            if (laneType != laneModelTypes[lane]) {
+                outbound.setLaneModel(lane, laneType != null ? LatencyModel.create(laneType) : null);
+                laneModelTypes[lane] = laneType;
+            }
+        }
+    }
+    
+    /**
+     * Start playing a timeline from its beginning, replacing any that is playing.
+     * 
+     * @param name Shown in the status and HUD
+     * @param timeline The timeline
+     * @param loop Start over at the end instead of holding the final delay
+     */
+    public synchronized void playTimeline(String name, LatencyTimeline timeline, boolean loop) {
+        this.timeline = timeline;
+        this.timelineStart = outbound.getClock().nanoTime();
+        this.timelineLoop = loop;
+        this.timelineName = name;
+        updateLatencyModel();
+    }
+    
+    /**
+     * Stop the timeline and go back to the configured base delay.
+     */
+    public synchronized void stopTimeline() {
+        timeline = null;
+        timelineName = null;
+        updateLatencyModel();
+    }
+    
+    /**
+     * Name of the timeline being played, or null if none.
+     */
+    @Nullable
+    public String getTimelineName() {
+        return timelineName;
+    }
+    
+    /**
+     * Whether the timeline starts over at its end.
+     */
+    public synchronized boolean isTimelineLooping() {
+        return timelineLoop;
+    }
+    
+    /**
+     * Whether the timeline actually sets the delay. A recorded trace takes over
+     * the whole delay, timeline included.
+     */
+    public boolean isTimelineActive() {
+        return timelineModel != null;
+    }
+    
+    /**
+     * Whether a timeline played without looping has reached its end.
+     */
+    public boolean isTimelineFinished() {
+        TimelineLatencyModel model = timelineModel;
+        return model != null && model.isFinished(outbound.getClock().nanoTime());
+    }
+    
+    /**
+     * Correction from {@link RttCalibrator} added to the outbound delay.
+     */
+    public synchronized void setCalibrationOffsetMs(int offsetMs) {
+        calibrationOffsetMs = offsetMs;
+        applyCalibrationOffset(config.snapshot());
+    }
+    
+    /**
+     * Give the calibration offset to the default lane and the category lanes that
+     * use the base delay. A category with a delay of its own keeps exactly that
+     * delay, since the calibrator only measures against the base one.
+     */
+    private void applyCalibrationOffset(ConfigSnapshot settings) {
+        int offset = calibrationOffsetMs;
+        outbound.setOffsetMs(0, offset);
+        for (PacketCategory category : ConfigSnapshot.LANE_CATEGORIES) {
+            boolean ownDelay = settings.categoryDelay(category).delayMs() != null;
+            outbound.setOffsetMs(ConfigSnapshot.laneOf(category), ownDelay ? 0 : offset);
+        }
+    }
+    
+    /**
+     * Replay a trace the caller already loaded, from its beginning. Call this
+     * before switching the config to the trace, so the manager doesn't load it again.
+     * 
+     * @param name Trace name as set in the config
+     */
+    public synchronized void playTrace(String name, LatencyTrace trace) {
+        ConfigSnapshot settings = config.snapshot();
+        traceModel = new TraceLatencyModel(trace, settings.traceTimeScale(), settings.traceLoop(),
+                outbound.getClock().nanoTime());
+        traceKey = name;
+        updateLatencyModel();
+    }
+    
+    /**
+     * Load a configured trace in the background and play it once it is ready; the
+     * latency model is used until then. Reading or converting a trace can take a
+     * while, too long for the client thread or the release lock.
+     */
+    private void loadTrace(String name) {
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return LatencyTrace.load(FakePingConfig.getTraceDirectory(), name);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((trace, error) -> {
+            if (error != null) {
+                FakePingMod.LOGGER.warn("Failed to load latency trace {}: {}", name, error.getCause().getMessage());
+            } else {
+                onTraceLoaded(name, trace);
+            }
+        });
+    }
+    
+    private synchronized void onTraceLoaded(String name, LatencyTrace trace) {
+        // The config may have moved on to another trace, or the trace was handed over meanwhile
+        if (!name.equals(traceKey) || traceModel != null) {
+            return;
+        }
+        ConfigSnapshot settings = config.snapshot();
+        traceModel = new TraceLatencyModel(trace, settings.traceTimeScale(), settings.traceLoop(),
+                outbound.getClock().nanoTime());
+        updateLatencyModel();
+    }
+    
+    /**
+     * Apply the configured uplink/downlink rates.
+     */
+    private void updateBandwidth() {
+        outbound.setBandwidth(config.getUplinkKbps());
+        inbound.setBandwidth(config.getDownlinkKbps());
+    }
+    
+    /**
+     * Apply the configured packet loss to both directions.
+     */
+    private void updateLoss() {
+        double rate = config.getLossPercent() / 100.0;
+        outbound.setLoss(rate, config.isBurstyLoss());
+        inbound.setLoss(rate, config.isBurstyLoss());
     }
     
     /**
      * Get the current queue size (for debugging/monitoring).
      */
     public int getQueueSize() {
-        return packetQueue.size();
+        return outbound.size();
     }
     
     /**
-     * Clear all queued packets (useful when disabling fake ping).
+     * Get the number of received packets still being held back.
      */
-    public void clearQueue() {
-        packetQueue.clear();
+    public int getInboundQueueSize() {
+        return inbound.size();
     }
     
     /**
-     * Internal class to store a packet with its scheduled send time.
+     * Delay accuracy metrics, per packet category.
      */
-    private static class DelayedPacket {
-        final Packet<?> packet;
-        final Runnable sendAction;
-        final long sendTime;
-        
-        DelayedPacket(Packet<?> packet, Runnable sendAction, long sendTime) {
-            this.packet = packet;
-            this.sendAction = sendAction;
-            this.sendTime = sendTime;
+    public DelayMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Recent delays and queue depth for the HUD graph.
+     */
+    public DelayHistory getHistory() {
+        return history;
+    }
+    
+    /**
+     * Start recording released packets to a new file in the given directory,
+     * replacing any running recording.
+     * 
+     * @throws IOException If the file can't be created
+     */
+    public SessionRecorder startRecording(Path directory) throws IOException {
+        SessionRecorder started = SessionRecorder.start(directory);
+        SessionRecorder previous;
+        synchronized (this) {
+            previous = recorder;
+            recorder = started;
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+        return started;
+    }
+    
+    /**
+     * Stop the running recording, if any. Doesn't wait for its file to be
+     * closed, so it is safe on the client thread.
+     * 
+     * @return The stopped recording, or null if none was running
+     */
+    public SessionRecorder stopRecording() {
+        SessionRecorder stopped;
+        // Once the lock is released no release pass can still be feeding it
+        synchronized (this) {
+            stopped = recorder;
+            recorder = null;
         }
+        if (stopped != null) {
+            stopped.stop();
+        }
+        return stopped;
+    }
+    
+    /**
+     * The running recording, or null.
+     */
+    public SessionRecorder getRecorder() {
+        return recorder;
     }
 }
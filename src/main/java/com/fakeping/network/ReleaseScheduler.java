@@ -0,0 +1,162 @@
+package com.fakeping.network;
+
+import com.fakeping.FakePingMod;
+import com.fakeping.config.FakePingConfig;
+import com.fakeping.config.ReleaseMode;
+import com.fakeping.engine.DelayPipeline;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated release thread for delayed packets.
+ * 
+ * The thread sleeps until the earliest packet deadline (based on System.nanoTime())
+ * and releases everything that is due, so packets leave within about a millisecond
+ * of their scheduled time instead of waiting for the next 50ms client tick.
+ * 
+ * The thread never writes to the network itself: due packets are handed to the
+ * Netty event loop of their channel as one batch per connection.
+ * 
+ * One thread serves the {@link PacketDelayManager} of every open connection;
+ * each manager takes a slot here while its connection is open.
+ */
+public class ReleaseScheduler implements Runnable {
+    /** Deadline value meaning "nothing to wait for". */
+    public static final long IDLE = DelayPipeline.IDLE;
+    
+    // parkNanos tends to overshoot by a fraction of a millisecond, so we wake up
+    // slightly early and spin the rest of the way
+    private static final long SPIN_THRESHOLD_NANOS = 200_000L;
+    /** How long a manager whose release failed is left alone before trying again. */
+    private static final long ERROR_BACKOFF_NANOS = 1_000_000_000L;
+    
+    private final FakePingConfig config;
+    private final List<PacketDelayManager> managers = new CopyOnWriteArrayList<>();
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile long nextWakeNanos = IDLE;
+    
+    public ReleaseScheduler(FakePingConfig config) {
+        this.config = config;
+    }
+    
+    /**
+     * Start the release thread. Does nothing if it is already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread t = new Thread(this, "FakePing-Release");
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        thread = t;
+        t.start();
+    }
+    
+    /**
+     * Stop the release thread. Packets still queued stay in their managers.
+     */
+    public synchronized void stop() {
+        running = false;
+        Thread t = thread;
+        thread = null;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+    
+    /**
+     * Start releasing a manager's packets.
+     */
+    void register(PacketDelayManager manager) {
+        managers.add(manager);
+    }
+    
+    /**
+     * Stop releasing a manager's packets; whatever it still holds stays queued.
+     */
+    void unregister(PacketDelayManager manager) {
+        managers.remove(manager);
+    }
+    
+    /**
+     * Notify the scheduler that a packet with the given deadline was queued.
+     * Only wakes the thread if that deadline is earlier than the one it sleeps on.
+     */
+    public void wakeup(long deadlineNanos) {
+        if (deadlineNanos < nextWakeNanos) {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+    
+    /**
+     * Earliest deadline over all managers that aren't backing off after an error.
+     */
+    private long nextDeadline(long now) {
+        long next = IDLE;
+        for (PacketDelayManager manager : managers) {
+            if (now >= manager.releaseBackoffUntil) {
+                next = Math.min(next, manager.nextDeadline());
+            }
+        }
+        return next;
+    }
+    
+    @Override
+    public void run() {
+        while (running) {
+            if (config.getReleaseMode() == ReleaseMode.TICK) {
+                // Tick mode: the client tick releases packets, sleep until switched back
+                nextWakeNanos = IDLE;
+                LockSupport.park(this);
+                continue;
+            }
+            
+            long next = IDLE;
+            long now = System.nanoTime();
+            for (PacketDelayManager manager : managers) {
+                if (now < manager.releaseBackoffUntil) {
+                    next = Math.min(next, manager.releaseBackoffUntil);
+                    continue;
+                }
+                try {
+                    next = Math.min(next, manager.releaseDue(now));
+                } catch (Exception e) {
+                    // Failing again on every pass would only spin and flood the log
+                    FakePingMod.LOGGER.error("Error in packet release thread, retrying in a second", e);
+                    manager.releaseBackoffUntil = now + ERROR_BACKOFF_NANOS;
+                    next = Math.min(next, manager.releaseBackoffUntil);
+                }
+            }
+            nextWakeNanos = next;
+            
+            // A packet queued while we were releasing either sees the new wake time
+            // and unparks us, or is picked up by this re-check
+            if (nextDeadline(now) < next) {
+                continue;
+            }
+            
+            if (next == IDLE) {
+                LockSupport.park(this);
+            } else {
+                long wait = next - System.nanoTime();
+                if (wait > SPIN_THRESHOLD_NANOS) {
+                    LockSupport.parkNanos(this, wait - SPIN_THRESHOLD_NANOS);
+                } else {
+                    // Spin on the clock alone, so the managers' locks stay free for
+                    // the threads queueing packets, then release once
+                    while (running && System.nanoTime() < next) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.fakeping.network;
+
+import com.fakeping.FakePingMod;
+import com.fakeping.config.ConfigSnapshot;
+import com.fakeping.config.FakePingConfig;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.packet.c2s.query.QueryPingC2SPacket;
+
+import java.util.Arrays;
+
+/**
+ * Measures the real round trip and steers the applied delay towards the target.
+ * 
+ * The configured delay isn't quite the ping the player gets: tick-based release,
+ * handing packets to the client thread and the integrated server add to it. So
+ * every few ticks a ping query goes to the server, delayed like any gameplay
+ * packet, and the time until its answer is handled gives the end-to-end RTT.
+ * 
+ * An integral controller compares the median of the latest probes with the
+ * target (outbound delay, plus inbound delay if that is on) and moves a
+ * correction that is added to the outbound delay. Probes sent before the last
+ * correction are ignored, so each step sees the effect of the previous one.
+ * 
+ * Probes are only sent with calibration enabled, and the correction is only
+ * applied while the delay follows the configured base (not a trace or timeline).
+ * It goes to the lanes that use the base delay; a category with a delay of its
+ * own keeps it as configured.
+ * 
+ * Probe ids count down from -1. The vanilla debug ping chart sends the same query
+ * with Util.getMeasuringTimeMs() as id, which is never negative, so the two can't
+ * be mistaken for each other.
+ */
+public class RttCalibrator {
+    private static final int PROBE_INTERVAL_TICKS = 5;
+    private static final int SAMPLES_PER_STEP = 5;
+    private static final int MAX_OUTSTANDING = 32;
+    private static final long PROBE_TIMEOUT_NANOS = 5_000_000_000L;
+    /** Fraction of the remaining error corrected per step. */
+    private static final double GAIN = 0.5;
+    
+    private final FakePingConfig config;
+    
+    // Probes in flight: id sent to the server, System.nanoTime() when sent, and
+    // the correction step they were sent under. Guarded by this.
+    private final long[] probeIds = new long[MAX_OUTSTANDING];
+    private final long[] probeSentAt = new long[MAX_OUTSTANDING];
+    private final int[] probeSteps = new int[MAX_OUTSTANDING];
+    private int nextProbe;
+    private long lastProbeId;
+    private final long[] samples = new long[SAMPLES_PER_STEP];
+    private int sampleCount;
+    private int step;
+    private int ticks;
+    private int lastTargetMs = -1;
+    private double correctionMs;
+    
+    private volatile int measuredRttMs = -1;
+    private volatile int appliedCorrectionMs;
+    
+    public RttCalibrator(FakePingConfig config) {
+        this.config = config;
+        Arrays.fill(probeIds, Long.MIN_VALUE);
+    }
+    
+    /**
+     * Send a probe every few ticks. Called at the end of every client tick.
+     */
+    public void tick(MinecraftClient client) {
+        ConfigSnapshot settings = config.snapshot();
+        ClientPlayNetworkHandler handler = client.getNetworkHandler();
+        if (!settings.enabled() || !settings.calibrateRtt() || handler == null || !client.isInSingleplayer()) {
+            if (measuredRttMs >= 0 || appliedCorrectionMs != 0) {
+                reset();
+            }
+            return;
+        }
+        if (++ticks < PROBE_INTERVAL_TICKS) {
+            return;
+        }
+        ticks = 0;
+        
+        long id;
+        synchronized (this) {
+            id = --lastProbeId;
+            int target = targetRttMs(settings);
+            if (target != lastTargetMs) {
+                // Samples measured against another target say nothing about this one
+                lastTargetMs = target;
+                startStep();
+            }
+            probeIds[nextProbe] = id;
+            probeSentAt[nextProbe] = System.nanoTime();
+            probeSteps[nextProbe] = step;
+            nextProbe = (nextProbe + 1) % MAX_OUTSTANDING;
+        }
+        handler.sendPacket(new QueryPingC2SPacket(id));
+    }
+    
+    /**
+     * A ping answer was handled by the client. Called on whichever thread handles it.
+     * 
+     * @param id The id echoed by the server
+     * @return Whether it answers one of our probes (possibly a stale one), which
+     *         vanilla shouldn't see
+     */
+    public synchronized boolean onPingResult(long id) {
+        if (id >= 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < MAX_OUTSTANDING; i++) {
+            if (probeIds[i] != id) {
+                continue;
+            }
+            probeIds[i] = Long.MIN_VALUE;
+            long rtt = now - probeSentAt[i];
+            if (probeSteps[i] == step && rtt < PROBE_TIMEOUT_NANOS) {
+                addSample(rtt);
+            }
+            break;
+        }
+        return true;
+    }
+    
+    private void addSample(long rttNanos) {
+        samples[sampleCount++] = rttNanos;
+        if (sampleCount < SAMPLES_PER_STEP) {
+            return;
+        }
+        
+        Arrays.sort(samples);
+        double median = samples[SAMPLES_PER_STEP / 2] / 1e6;
+        measuredRttMs = (int) Math.round(median);
+        
+        ConfigSnapshot settings = config.snapshot();
+        PacketDelayManager manager = FakePingMod.getPacketDelayManager();
+        boolean timeline = manager != null && manager.isTimelineActive();
+        if (settings.calibrateRtt() && !settings.usesTrace() && !timeline) {
+            // Never correct by more than the target itself in either direction
+            int target = targetRttMs(settings);
+            correctionMs += GAIN * (target - median);
+            correctionMs = Math.max(-target, Math.min(target, correctionMs));
+        } else {
+            correctionMs = 0;
+        }
+        apply();
+        startStep();
+    }
+    
+    private void startStep() {
+        step++;
+        sampleCount = 0;
+    }
+    
+    /**
+     * Hand the correction to the current connection's manager. A manager for a
+     * new connection starts without one, just like the calibrator after reset().
+     */
+    private void apply() {
+        int correction = (int) Math.round(correctionMs);
+        if (correction != appliedCorrectionMs) {
+            appliedCorrectionMs = correction;
+            PacketDelayManager manager = FakePingMod.getPacketDelayManager();
+            if (manager != null) {
+                manager.setCalibrationOffsetMs(correction);
+            }
+        }
+    }
+    
+    /**
+     * Forget all measurements and remove the correction, e.g. after leaving a world.
+     */
+    public synchronized void reset() {
+        Arrays.fill(probeIds, Long.MIN_VALUE);
+        correctionMs = 0;
+        measuredRttMs = -1;
+        lastTargetMs = -1;
+        apply();
+        startStep();
+    }
+    
+    /**
+     * Round trip the player asked for: the outbound delay, plus the inbound delay if it's on.
+     */
+    public static int targetRttMs(ConfigSnapshot settings) {
+        return settings.baseDelayMs() + (settings.inboundActive() ? settings.inboundDelayMs() : 0);
+    }
+    
+    /**
+     * Median of the latest probes in ms, or -1 if nothing was measured yet.
+     */
+    public int getMeasuredRttMs() {
+        return measuredRttMs;
+    }
+    
+    /**
+     * Correction currently added to the outbound delay.
+     */
+    public int getCorrectionMs() {
+        return appliedCorrectionMs;
+    }
+}
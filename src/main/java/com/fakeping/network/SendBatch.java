@@ -0,0 +1,83 @@
+package com.fakeping.network;
+
+import com.fakeping.FakePingMod;
+import com.fakeping.metrics.DelayMetrics;
+import net.minecraft.network.ClientConnection;
+
+import java.util.Arrays;
+
+/**
+ * Packets released in the same pass, written by a single task on the event loop
+ * of the manager's connection.
+ * 
+ * Sending packets one by one from the release thread costs an event-loop task
+ * and a flush each. A batch instead runs as one task that writes every packet
+ * without flushing, in order and with its own callbacks, then flushes once.
+ * Batches are pooled by the {@link PacketDelayManager} and reused.
+ */
+class SendBatch implements Runnable {
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private final PacketDelayManager manager;
+    private final ClientConnection connection;
+    DelayedPacket[] packets = new DelayedPacket[INITIAL_CAPACITY];
+    int count;
+    
+    SendBatch(PacketDelayManager manager) {
+        this.manager = manager;
+        this.connection = manager.getConnection();
+    }
+    
+    void add(DelayedPacket packet) {
+        if (count == packets.length) {
+            packets = Arrays.copyOf(packets, count * 2);
+        }
+        packets[count++] = packet;
+    }
+    
+    /**
+     * Write all packets, then flush. Runs on the connection's event loop, where
+     * ClientConnection.send writes directly instead of scheduling another task.
+     */
+    @Override
+    public void run() {
+        DelayMetrics metrics = manager.getMetrics();
+        try {
+            if (!connection.isOpen()) {
+                for (int i = 0; i < count; i++) {
+                    metrics.recordDropped(packets[i].category);
+                }
+                return;
+            }
+            
+            int sent = 0;
+            for (int i = 0; i < count; i++) {
+                DelayedPacket delayedPacket = packets[i];
+                try {
+                    // The three-argument send isn't intercepted by ClientConnectionMixin,
+                    // so the released packet can't be queued a second time
+                    connection.send(delayedPacket.packet, delayedPacket.callbacks, false);
+                    metrics.recordReleased(delayedPacket.category, delayedPacket.getQueuedAt(), 
+                            delayedPacket.getSendTime(), System.nanoTime());
+                    sent++;
+                } catch (Exception e) {
+                    FakePingMod.LOGGER.error("Error sending delayed packet", e);
+                    metrics.recordDropped(delayedPacket.category);
+                    manager.fail(delayedPacket);
+                }
+            }
+            connection.flush();
+            metrics.recordFlush(sent);
+        } finally {
+            manager.recycle(this);
+        }
+    }
+    
+    /**
+     * Drop all references so a pooled batch doesn't keep packets alive.
+     */
+    void clear() {
+        Arrays.fill(packets, 0, count, null);
+        count = 0;
+    }
+}
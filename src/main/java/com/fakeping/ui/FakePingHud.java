@@ -1,7 +1,10 @@
 package com.fakeping.ui;
 
 import com.fakeping.FakePingMod;
-import com.fakeping.config.FakePingConfig;
+import com.fakeping.config.ConfigSnapshot;
+import com.fakeping.metrics.DelayHistory;
+import com.fakeping.network.PacketDelayManager;
+import com.fakeping.network.RttCalibrator;
 import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gui.DrawContext;
@@ -11,7 +14,14 @@ import net.minecraft.client.render.RenderTickCounter;
  * HUD overlay that displays the current fake ping status.
  * 
  * Shows a small indicator in the top-right corner of the screen when
- * fake ping is enabled, displaying the current delay and queue size.
+ * fake ping is enabled, displaying the current delay, queue size and the
+ * measured round trip against its target.
+ * Optionally a graph below it shows the delays packets actually got and the
+ * queue depth over the last few seconds.
+ * 
+ * The label only changes when the settings, timeline, RTT or queue size do, so it is built
+ * and measured once per change rather than every frame. The graph reads into
+ * preallocated arrays; rendering a frame allocates nothing.
  */
 public class FakePingHud implements HudRenderCallback {
     
@@ -19,6 +29,22 @@ public class FakePingHud implements HudRenderCallback {
     private static final int BACKGROUND_COLOR = 0x80000000; // Semi-transparent black
     private static final int TEXT_COLOR = 0xFFFFFF; // White
     private static final int ENABLED_COLOR = 0x55FF55; // Green
+    private static final int DELAY_BAR_COLOR = 0xC055FF55; // Green
+    private static final int DEPTH_COLOR = 0xFFFFFF55; // Yellow
+    private static final int GRAPH_WIDTH = 100;
+    private static final int GRAPH_HEIGHT = 24;
+    
+    // Label cache, only touched on the render thread
+    private ConfigSnapshot labelSettings;
+    private int labelQueueSize = -1;
+    private String labelTimeline;
+    private int labelRtt = -1;
+    private String label;
+    private int labelWidth;
+    
+    // Graph buffers, reused every frame
+    private final int[] delays = new int[DelayHistory.CAPACITY];
+    private final int[] depths = new int[DelayHistory.CAPACITY];
     
     public static void register() {
         HudRenderCallback.EVENT.register(new FakePingHud());
@@ -26,10 +52,10 @@ public class FakePingHud implements HudRenderCallback {
     
     @Override
     public void onHudRender(DrawContext drawContext, RenderTickCounter tickCounter) {
-        FakePingConfig config = FakePingMod.getConfig();
+        ConfigSnapshot settings = FakePingMod.getConfig().snapshot();
         
         // Don't show HUD if disabled in config or not in singleplayer
-        if (!config.shouldShowHud()) {
+        if (!settings.showHud()) {
             return;
         }
         
@@ -39,49 +65,126 @@ public class FakePingHud implements HudRenderCallback {
         }
         
         // Only show when fake ping is enabled
-        if (!config.isEnabled()) {
+        if (!settings.enabled()) {
             return;
         }
         
-        int windowWidth = client.getWindow().getScaledWidth();
-        
-        // Build the display text
-        int delay = config.getBaseDelayMs();
-        int jitter = config.getJitterMs();
-        int queueSize = FakePingMod.getPacketDelayManager().getQueueSize();
-        
-        String text = String.format("Fake Ping: %dms", delay);
-        if (jitter > 0) {
-            text += String.format(" (±%d)", jitter);
+        PacketDelayManager manager = FakePingMod.getPacketDelayManager();
+        if (manager == null) {
+            return;
         }
-        if (queueSize > 0) {
-            text += String.format(" [%d]", queueSize);
+        int queueSize = manager.getQueueSize();
+        String timeline = manager.isTimelineActive() ? manager.getTimelineName() : null;
+        int rtt = FakePingMod.getRttCalibrator().getMeasuredRttMs();
+        if (settings != labelSettings || queueSize != labelQueueSize || timeline != labelTimeline 
+                || rtt != labelRtt) {
+            updateLabel(client, settings, queueSize, timeline, rtt);
         }
         
-        int textWidth = client.textRenderer.getWidth(text);
+        int windowWidth = client.getWindow().getScaledWidth();
         int textHeight = client.textRenderer.fontHeight;
         
         // Position in top-right corner
-        int x = windowWidth - textWidth - PADDING * 2;
+        int x = windowWidth - labelWidth - PADDING * 2;
         int y = PADDING;
         
         // Draw background
         drawContext.fill(
-            x - PADDING, 
-            y - PADDING, 
-            x + textWidth + PADDING, 
-            y + textHeight + PADDING, 
+            x - PADDING,
+            y - PADDING,
+            x + labelWidth + PADDING,
+            y + textHeight + PADDING,
             BACKGROUND_COLOR
         );
         
         // Draw text
         drawContext.drawText(
             client.textRenderer,
-            text,
+            label,
             x,
             y,
             ENABLED_COLOR,
             true // shadow
         );
+        
+        if (settings.showGraph()) {
+            int graphX = windowWidth - GRAPH_WIDTH - PADDING * 2;
+            int graphY = y + textHeight + PADDING * 3;
+            drawGraph(drawContext, manager.getHistory(), settings, graphX, graphY);
+        }
+    }
+    
+    /**
+     * Rebuild the label text. Only runs when something shown in it changed.
+     */
+    private void updateLabel(MinecraftClient client, ConfigSnapshot settings, int queueSize, String timeline, int rtt) {
+        StringBuilder text = new StringBuilder("Fake Ping: ");
+        if (settings.usesTrace()) {
+            text.append("trace ").append(settings.traceName());
+        } else if (timeline != null) {
+            text.append("timeline ").append(timeline);
+        } else {
+            text.append(settings.baseDelayMs()).append("ms");
+        }
+        if (!settings.usesTrace() && settings.jitterMs() > 0) {
+            text.append(" (±").append(settings.jitterMs()).append(')');
+        }
+        if (queueSize > 0) {
+            text.append(" [").append(queueSize).append(']');
+        }
+        if (rtt >= 0) {
+            text.append(" rtt ").append(rtt).append('/').append(RttCalibrator.targetRttMs(settings)).append("ms");
+        }
+        
+        label = text.toString();
+        labelWidth = client.textRenderer.getWidth(label);
+        labelSettings = settings;
+        labelQueueSize = queueSize;
+        labelTimeline = timeline;
+        labelRtt = rtt;
+    }
+    
+    /**
+     * Draw applied delays as bars and queue depth as a line of dots, newest on the right.
+     * Each column covers as many history buckets as needed to fit the time span.
+     */
+    private void drawGraph(DrawContext drawContext, DelayHistory history, ConfigSnapshot settings, int x, int y) {
+        int buckets = Math.min(settings.graphSeconds() * 1000 / DelayHistory.BUCKET_MS, DelayHistory.CAPACITY);
+        history.copyRecent(System.nanoTime(), buckets, delays, depths);
+        int perColumn = (buckets + GRAPH_WIDTH - 1) / GRAPH_WIDTH;
+        int columns = buckets / perColumn;
+        
+        // Scale to the window's peak, but never below the configured delay so a steady line sits mid-graph
+        int delayScale = Math.max(1, (settings.baseDelayMs() + settings.jitterMs()) * 2);
+        int depthScale = 1;
+        for (int i = 0; i < buckets; i++) {
+            delayScale = Math.max(delayScale, delays[i]);
+            depthScale = Math.max(depthScale, depths[i]);
+        }
+        
+        int left = x + GRAPH_WIDTH - columns;
+        drawContext.fill(left - PADDING, y - PADDING, x + GRAPH_WIDTH + PADDING, y + GRAPH_HEIGHT + PADDING,
+            BACKGROUND_COLOR);
+        
+        int bottom = y + GRAPH_HEIGHT;
+        for (int column = 0; column < columns; column++) {
+            int delay = 0;
+            int depth = 0;
+            int start = buckets - (columns - column) * perColumn;
+            for (int i = start; i < start + perColumn; i++) {
+                delay = Math.max(delay, delays[i]);
+                depth = Math.max(depth, depths[i]);
+            }
+            
+            int columnX = left + column;
+            if (delay > 0) {
+                int height = Math.max(1, delay * GRAPH_HEIGHT / delayScale);
+                drawContext.fill(columnX, bottom - height, columnX + 1, bottom, DELAY_BAR_COLOR);
+            }
+            if (depth > 0) {
+                int depthY = bottom - Math.max(1, depth * GRAPH_HEIGHT / depthScale);
+                drawContext.fill(columnX, depthY, columnX + 1, depthY + 1, DEPTH_COLOR);
+            }
+        }
     }
 }
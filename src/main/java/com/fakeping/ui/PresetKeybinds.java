@@ -0,0 +1,54 @@
+package com.fakeping.ui;
+
+import com.fakeping.FakePingMod;
+import com.fakeping.config.LatencyPreset;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
+import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.option.KeyBinding;
+import net.minecraft.client.util.InputUtil;
+import net.minecraft.text.Text;
+import org.lwjgl.glfw.GLFW;
+
+/**
+ * Keybinds that cycle through the loaded presets (] and [ by default).
+ * 
+ * A key press goes straight to {@link com.fakeping.config.FakePingConfig#applyPreset},
+ * without a command in between, and the new preset is shown above the hotbar.
+ */
+public class PresetKeybinds {
+    private static final String CATEGORY = "category.fakeping";
+    
+    private final KeyBinding next = KeyBindingHelper.registerKeyBinding(new KeyBinding(
+            "key.fakeping.next_preset", InputUtil.Type.KEYSYM, GLFW.GLFW_KEY_RIGHT_BRACKET, CATEGORY));
+    private final KeyBinding previous = KeyBindingHelper.registerKeyBinding(new KeyBinding(
+            "key.fakeping.previous_preset", InputUtil.Type.KEYSYM, GLFW.GLFW_KEY_LEFT_BRACKET, CATEGORY));
+    
+    public static void register() {
+        PresetKeybinds keybinds = new PresetKeybinds();
+        ClientTickEvents.END_CLIENT_TICK.register(keybinds::tick);
+    }
+    
+    private void tick(MinecraftClient client) {
+        while (next.wasPressed()) {
+            cycle(client, 1);
+        }
+        while (previous.wasPressed()) {
+            cycle(client, -1);
+        }
+    }
+    
+    private static void cycle(MinecraftClient client, int step) {
+        if (client.player == null) {
+            return;
+        }
+        LatencyPreset preset = FakePingMod.getPresetLibrary().cycle(step);
+        if (preset == null) {
+            client.player.sendMessage(Text.literal("§7No presets in config/fakeping/presets"), true);
+            return;
+        }
+        
+        FakePingMod.getConfig().applyPreset(preset);
+        client.player.sendMessage(Text.literal("§aFake ping preset: §f" + preset.getName()), true);
+    }
+}
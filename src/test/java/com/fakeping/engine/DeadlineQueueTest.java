@@ -0,0 +1,113 @@
+package com.fakeping.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlineQueueTest {
+    private static final long MS = 1_000_000L;
+    
+    private static class Entry extends DelayEntry {
+        final int id;
+        
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+    
+    @Test
+    void preservedOrderClampsToLatestDeadline() {
+        DeadlineQueue<Entry> queue = new DeadlineQueue<>();
+        Entry slow = new Entry(0);
+        Entry fast = new Entry(1);
+        
+        assertEquals(300 * MS, queue.offer(slow, 300 * MS, 0, true, 0));
+        assertEquals(300 * MS, queue.offer(fast, 100 * MS, 0, true, 0));
+        
+        assertNull(queue.pollDue(299 * MS));
+        assertSame(slow, queue.pollDue(300 * MS));
+        assertSame(fast, queue.pollDue(300 * MS));
+    }
+    
+    @Test
+    void unorderedEntriesOvertake() {
+        DeadlineQueue<Entry> queue = new DeadlineQueue<>();
+        Entry slow = new Entry(0);
+        Entry fast = new Entry(1);
+        
+        queue.offer(slow, 300 * MS, 0, false, 0);
+        assertEquals(100 * MS, queue.offer(fast, 100 * MS, 0, false, 0));
+        
+        assertSame(fast, queue.pollDue(300 * MS));
+        assertSame(slow, queue.pollDue(300 * MS));
+    }
+    
+    @Test
+    void lostEntryStallsOnlyItsLane() {
+        DeadlineQueue<Entry> queue = new DeadlineQueue<>(2);
+        Entry lost = new Entry(0);
+        Entry behind = new Entry(1);
+        Entry otherLane = new Entry(2);
+        
+        // Retransmitted 200 ms after its own deadline; nothing in lane 0 may overtake it
+        assertEquals(300 * MS, queue.offer(lost, 100 * MS, 0, false, 200 * MS));
+        assertEquals(300 * MS, queue.offer(behind, 150 * MS, 0, false, 0));
+        assertEquals(150 * MS, queue.offer(otherLane, 150 * MS, 1, false, 0));
+        
+        assertSame(otherLane, queue.pollDue(200 * MS));
+        assertNull(queue.pollDue(200 * MS));
+        assertSame(lost, queue.pollDue(300 * MS));
+        assertSame(behind, queue.pollDue(300 * MS));
+    }
+    
+    @Test
+    void evictOldestSkipsEntriesThatLeft() {
+        DeadlineQueue<Entry> queue = new DeadlineQueue<>();
+        Entry[] entries = new Entry[4];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(i);
+            entries[i].setEvictable(i != 2);
+            queue.offer(entries[i], (i + 1) * 100 * MS, 0, true, 0);
+        }
+        
+        assertSame(entries[0], queue.pollDue(100 * MS));
+        assertSame(entries[1], queue.evictOldest());
+        // Entry 2 is not evictable, so the next one after it is
+        assertSame(entries[3], queue.evictOldest());
+        assertNull(queue.evictOldest());
+        assertEquals(1, queue.size());
+        assertSame(entries[2], queue.pollDue(300 * MS));
+    }
+    
+    @Test
+    void reusedEntryIsNotEvictedUnderItsOldSequence() {
+        DeadlineQueue<Entry> queue = new DeadlineQueue<>();
+        Entry entry = new Entry(0);
+        entry.setEvictable(true);
+        queue.offer(entry, 100 * MS, 0, true, 0);
+        assertSame(entry, queue.pollDue(100 * MS));
+        
+        // Pooled and queued again, now not evictable
+        entry.setEvictable(false);
+        queue.offer(entry, 200 * MS, 0, true, 0);
+        assertNull(queue.evictOldest());
+        assertEquals(1, queue.size());
+    }
+    
+    @Test
+    void retimeSendNowKeepsOrder() {
+        DeadlineQueue<Entry> queue = new DeadlineQueue<>();
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new Entry(i), (1000 - i * 50) * MS, 0, false, 0);
+        }
+        
+        queue.retime(10 * MS, Long.MIN_VALUE, Long.MAX_VALUE);
+        
+        assertEquals(10 * MS, queue.peekDeadline());
+        for (int i = 0; i < 10; i++) {
+            // Equal deadlines leave in send order
+            assertEquals(i, queue.pollDue(10 * MS).id);
+        }
+        assertEquals(DelayPipeline.IDLE, queue.peekDeadline());
+    }
+}
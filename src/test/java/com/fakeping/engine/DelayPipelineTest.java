@@ -0,0 +1,271 @@
+package com.fakeping.engine;
+
+import com.fakeping.config.LatencyModelType;
+import com.fakeping.latency.LatencyModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the pipeline on a {@link ManualClock} with a fixed seed, so every run
+ * samples the same delays and losses.
+ */
+class DelayPipelineTest {
+    private static final long SEED = 0x5EED_F4CEL;
+    private static final long MS = 1_000_000L;
+    private static final long START = 1_000 * MS;
+    
+    private ManualClock clock;
+    private DelayPipeline<Entry> pipeline;
+    
+    private static class Entry extends DelayEntry {
+        // Not final so the simulation can pool entries
+        int id;
+        
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+    
+    @BeforeEach
+    void setUp() {
+        clock = new ManualClock(START);
+        pipeline = new DelayPipeline<>(clock, new SplittableRandom(SEED), LatencyModel.create(LatencyModelType.NORMAL),
+                (entry, target) -> {}, 2);
+    }
+    
+    private static DelayParams params(int baseMs, int jitterMs, boolean preserveOrder) {
+        return new DelayParams(baseMs, jitterMs, preserveOrder, 200 * MS, 0, 1460, 0, 0, 0, true);
+    }
+    
+    /**
+     * Offer entries 0.1 ms apart, then release everything.
+     */
+    private List<Entry> offerAndRelease(int count, DelayParams params) {
+        for (int i = 0; i < count; i++) {
+            assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(i), 100, params));
+            clock.advance(MS / 10);
+        }
+        clock.advance(10_000 * MS);
+        List<Entry> released = new ArrayList<>();
+        Entry entry;
+        while ((entry = pipeline.pollDue(clock.nanoTime())) != null) {
+            released.add(entry);
+        }
+        assertEquals(count, released.size());
+        return released;
+    }
+    
+    /**
+     * Offer entries 1 µs apart (a million packets a second) while releasing
+     * whatever is due, reusing released entries the way the manager pools packets.
+     * 
+     * @return Checksum over the deadlines in release order
+     */
+    private long simulate(int count, DelayParams params) {
+        ArrayDeque<Entry> pool = new ArrayDeque<>();
+        long checksum = 0;
+        long lastSendTime = Long.MIN_VALUE;
+        int released = 0;
+        for (int i = 0; i < count || pipeline.size() > 0; i++) {
+            if (i < count) {
+                Entry entry = pool.isEmpty() ? new Entry(i) : pool.pop();
+                entry.id = i;
+                assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(entry, 100, params));
+            }
+            clock.advance(MS / 1000);
+            Entry entry;
+            while ((entry = pipeline.pollDue(clock.nanoTime())) != null) {
+                assertEquals(released++, entry.id);
+                assertTrue(entry.getSendTime() >= lastSendTime);
+                lastSendTime = entry.getSendTime();
+                checksum = checksum * 31 + entry.getSendTime();
+                pool.push(entry);
+            }
+        }
+        assertEquals(count, released);
+        assertEquals(0, pipeline.size());
+        assertEquals(0, pipeline.heldBytes());
+        return checksum;
+    }
+    
+    @Test
+    void millionEntriesReleaseInOrderAndReproducibly() {
+        DelayParams params = params(100, 50, true);
+        pipeline.setLoss(0.01, false);
+        long first = simulate(1_000_000, params);
+        setUp();
+        pipeline.setLoss(0.01, false);
+        
+        assertEquals(first, simulate(1_000_000, params));
+    }
+    
+    @Test
+    void preserveOrderReleasesInSendOrder() {
+        List<Entry> released = offerAndRelease(1000, params(100, 50, true));
+        
+        for (int i = 0; i < released.size(); i++) {
+            assertEquals(i, released.get(i).id);
+            if (i > 0) {
+                assertTrue(released.get(i).getSendTime() >= released.get(i - 1).getSendTime());
+            }
+        }
+    }
+    
+    @Test
+    void jitterReordersWithoutPreserveOrder() {
+        List<Entry> released = offerAndRelease(1000, params(100, 50, false));
+        
+        int overtaken = 0;
+        for (int i = 1; i < released.size(); i++) {
+            if (released.get(i).id < released.get(i - 1).id) {
+                overtaken++;
+            }
+        }
+        assertTrue(overtaken > 0);
+    }
+    
+    @Test
+    void sameSeedSameDeadlines() {
+        List<Entry> first = offerAndRelease(200, params(100, 50, false));
+        setUp();
+        List<Entry> second = offerAndRelease(200, params(100, 50, false));
+        
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).id, second.get(i).id);
+            assertEquals(first.get(i).getSendTime(), second.get(i).getSendTime());
+        }
+    }
+    
+    @Test
+    void lostEntryStallsLaterOnes() {
+        DelayParams params = params(100, 0, false);
+        DelayParams otherLane = new DelayParams(100, 0, false, 200 * MS, 0, 1460, 0, 0, 1, false);
+        Entry lost = new Entry(0);
+        Entry behind = new Entry(1);
+        Entry unaffected = new Entry(2);
+        
+        pipeline.setLoss(1, false);
+        assertEquals(START + 300 * MS, pipeline.offer(lost, 100, params));
+        pipeline.setLoss(0, false);
+        clock.advance(MS);
+        // Its own deadline would be 101 ms, but it can't overtake the retransmission
+        assertEquals(START + 300 * MS, pipeline.offer(behind, 100, params));
+        // A lane with its own order isn't held up
+        assertEquals(START + 101 * MS, pipeline.offer(unaffected, 100, otherLane));
+        
+        assertSame(unaffected, pipeline.pollDue(START + 101 * MS));
+        assertNull(pipeline.pollDue(START + 299 * MS));
+        assertSame(lost, pipeline.pollDue(START + 300 * MS));
+        assertSame(behind, pipeline.pollDue(START + 300 * MS));
+    }
+    
+    @Test
+    void drainSendNowMakesEverythingDue() {
+        DelayParams params = params(500, 100, true);
+        for (int i = 0; i < 50; i++) {
+            pipeline.offer(new Entry(i), 100, params);
+            clock.advance(MS);
+        }
+        
+        pipeline.drain(DelayPipeline.SEND_NOW, 0, params);
+        
+        assertEquals(clock.nanoTime(), pipeline.nextDeadline());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, pipeline.pollDue(clock.nanoTime()).id);
+        }
+        assertEquals(DelayPipeline.IDLE, pipeline.nextDeadline());
+        assertEquals(0, pipeline.heldBytes());
+    }
+    
+    @Test
+    void drainClosesCoalescingGroup() {
+        DelayParams params = new DelayParams(500, 0, true, 200 * MS, 20, 1460, 0, 0, 0, true);
+        for (int i = 0; i < 3; i++) {
+            pipeline.offer(new Entry(i), 100, params);
+        }
+        assertEquals(0, pipeline.size());
+        
+        pipeline.drain(DelayPipeline.SEND_NOW, 0, params);
+        
+        assertEquals(3, pipeline.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, pipeline.pollDue(clock.nanoTime()).id);
+        }
+    }
+    
+    @Test
+    void drainCapsDeadlinesAtMaxNanos() {
+        DelayParams params = params(500, 100, true);
+        for (int i = 0; i < 50; i++) {
+            pipeline.offer(new Entry(i), 100, params);
+            clock.advance(MS);
+        }
+        long now = clock.nanoTime();
+        
+        pipeline.drain(0, 50 * MS, params);
+        
+        assertNull(pipeline.pollDue(now - 1));
+        long previous = now;
+        for (int i = 0; i < 50; i++) {
+            Entry entry = pipeline.pollDue(now + 50 * MS);
+            assertEquals(i, entry.id);
+            assertTrue(entry.getSendTime() >= previous);
+            assertTrue(entry.getSendTime() <= now + 50 * MS);
+            previous = entry.getSendTime();
+        }
+    }
+    
+    @Test
+    void rejectsWhenEntryLimitReached() {
+        DelayParams params = new DelayParams(100, 0, true, 200 * MS, 0, 1460, 2, 0, 0, true);
+        
+        assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(0), 100, params));
+        assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(1), 100, params));
+        assertEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(2), 100, params));
+        assertEquals(2, pipeline.size());
+        
+        assertNotNull(pipeline.pollDue(START + 100 * MS));
+        assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(3), 100, params));
+    }
+    
+    @Test
+    void rejectsWhenByteLimitReached() {
+        DelayParams params = new DelayParams(100, 0, true, 200 * MS, 0, 1460, 0, 1000, 0, true);
+        
+        assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(0), 600, params));
+        assertEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(1), 600, params));
+        assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(new Entry(2), 400, params));
+        assertEquals(1000, pipeline.heldBytes());
+    }
+    
+    @Test
+    void evictOldestMakesRoom() {
+        DelayParams params = new DelayParams(100, 0, true, 200 * MS, 0, 1460, 3, 0, 0, true);
+        Entry[] entries = new Entry[4];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(i);
+            entries[i].setEvictable(i > 0);
+        }
+        for (int i = 0; i < 3; i++) {
+            pipeline.offer(entries[i], 100, params);
+        }
+        assertEquals(DelayPipeline.REJECTED, pipeline.offer(entries[3], 100, params));
+        
+        assertSame(entries[1], pipeline.evictOldest());
+        assertEquals(200, pipeline.heldBytes());
+        assertNotEquals(DelayPipeline.REJECTED, pipeline.offer(entries[3], 100, params));
+        
+        assertSame(entries[2], pipeline.evictOldest());
+        assertSame(entries[3], pipeline.evictOldest());
+        // The one left is not evictable
+        assertNull(pipeline.evictOldest());
+        assertSame(entries[0], pipeline.pollDue(START + 100 * MS));
+    }
+}